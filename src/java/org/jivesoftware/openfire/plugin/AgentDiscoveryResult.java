@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The agents that were found for an entity, and whether all information needed to find them was obtained.
+ *
+ * A result is incomplete when a Service Discovery request was not answered (in time), or answered with an error. The
+ * agents of an incomplete result are a best effort, which is not to be cached.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public final class AgentDiscoveryResult
+{
+    private final Set<AgentInformation> agents;
+    private final boolean complete;
+
+    public AgentDiscoveryResult(final Set<AgentInformation> agents, final boolean complete)
+    {
+        this.agents = Collections.unmodifiableSet(agents);
+        this.complete = complete;
+    }
+
+    public Set<AgentInformation> getAgents()
+    {
+        return agents;
+    }
+
+    public boolean isComplete()
+    {
+        return complete;
+    }
+}
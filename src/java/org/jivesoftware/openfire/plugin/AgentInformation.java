@@ -20,6 +20,8 @@ import org.dom4j.Element;
 import org.dom4j.QName;
 import org.xmpp.packet.JID;
 
+import java.util.Objects;
+
 /**
  * Representation of an 'agent' as defined in XEP-0094: Agent Information.
  *
@@ -29,33 +31,99 @@ public class AgentInformation
 {
     public static final String NAMESPACE = "jabber:iq:agents";
 
+    private static final int TRANSPORT = 1;
+    private static final int GROUPCHAT = 1 << 1;
+    private static final int REGISTER = 1 << 2;
+    private static final int SEARCH = 1 << 3;
+
     private final JID jid;
     private final String name;
     private final String description;
-    private final boolean isTransport;
-    private final boolean isGroupchat;
     private final String service;
-    private final boolean supportsRegister;
-    private final boolean supportsSearch;
+    private final int flags;
+    private final int hash;
+
+    /**
+     * The XML representation of this agent, rendered when first needed. This element must not be modified, nor added
+     * to a document.
+     */
+    private volatile Element rendered;
 
     public AgentInformation(final JID jid, final String name, final String description, final boolean isTransport, final boolean isGroupchat, final String service, final boolean supportsRegister, final boolean supportsSearch)
     {
-        this.jid = jid;
+        this.jid = Objects.requireNonNull(jid);
         this.name = name;
         this.description = description;
-        this.isTransport = isTransport;
-        this.isGroupchat = isGroupchat;
         this.service = service;
-        this.supportsRegister = supportsRegister;
-        this.supportsSearch = supportsSearch;
+        this.flags = (isTransport ? TRANSPORT : 0) | (isGroupchat ? GROUPCHAT : 0) | (supportsRegister ? REGISTER : 0) | (supportsSearch ? SEARCH : 0);
+        this.hash = Objects.hash(jid, name, description, service, flags);
+    }
+
+    public JID getJid()
+    {
+        return jid;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getDescription()
+    {
+        return description;
+    }
+
+    public String getService()
+    {
+        return service;
+    }
+
+    public boolean isTransport()
+    {
+        return (flags & TRANSPORT) != 0;
+    }
+
+    public boolean isGroupchat()
+    {
+        return (flags & GROUPCHAT) != 0;
+    }
+
+    public boolean supportsRegister()
+    {
+        return (flags & REGISTER) != 0;
+    }
+
+    public boolean supportsSearch()
+    {
+        return (flags & SEARCH) != 0;
     }
 
     /**
      * Returns an XML element that represents the agent.
      *
+     * The returned element is a copy of a representation that is rendered only once for this instance. It can be
+     * modified, and added to any document.
+     *
      * @return an XML element.
      */
     public Element asElement()
+    {
+        Element result = rendered;
+        if (result == null) {
+            // Concurrent invocations might render more than once, which is harmless.
+            result = render();
+            rendered = result;
+        }
+        return result.createCopy();
+    }
+
+    /**
+     * Renders the XML element that represents the agent.
+     *
+     * @return an XML element.
+     */
+    private Element render()
     {
         final Element result = DocumentHelper.createElement(QName.get("agent", NAMESPACE));
         result.addAttribute("jid", jid.toString());
@@ -65,22 +133,52 @@ public class AgentInformation
         if (description != null) {
             result.addElement("description").setText(description);
         }
-        if (isTransport) {
+        if (isTransport()) {
             result.addElement("transport");
         }
-        if (isGroupchat) {
+        if (isGroupchat()) {
             result.addElement("groupchat");
         }
         if (service != null) {
             result.addElement("service").setText(service);
         }
-        if (supportsRegister) {
+        if (supportsRegister()) {
             result.addElement("register");
         }
-        if (supportsSearch) {
+        if (supportsSearch()) {
             result.addElement("search");
         }
 
         return result;
     }
+
+    @Override
+    public boolean equals(final Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final AgentInformation that = (AgentInformation) o;
+        return hash == that.hash
+            && flags == that.flags
+            && jid.equals(that.jid)
+            && Objects.equals(name, that.name)
+            && Objects.equals(description, that.description)
+            && Objects.equals(service, that.service);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AgentInformation{jid=" + jid + ", name='" + name + "', description='" + description + "', service='" + service + "', flags=" + Integer.toBinaryString(flags) + "}";
+    }
 }
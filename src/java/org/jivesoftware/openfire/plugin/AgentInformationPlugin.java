@@ -16,8 +16,12 @@
 package org.jivesoftware.openfire.plugin;
 
 import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.component.InternalComponentManager;
 import org.jivesoftware.openfire.container.Plugin;
 import org.jivesoftware.openfire.container.PluginManager;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.util.TaskEngine;
 
 import java.io.File;
 
@@ -29,20 +33,62 @@ import java.io.File;
  */
 public class AgentInformationPlugin implements Plugin
 {
+    /**
+     * The interval (in milliseconds) at which the disco category registry override file is checked for changes.
+     */
+    private static final long REGISTRY_CHECK_INTERVAL = 30000;
+
+    /**
+     * Key of the statistic that counts requests to external components that were not sent, as too many requests were
+     * outstanding.
+     */
+    public static final String STAT_EXTERNAL_REJECTED = "agentinformation_external_rejected";
+
+    /**
+     * Key of the statistic that counts requests to external components that are awaiting an answer.
+     */
+    public static final String STAT_EXTERNAL_OUTSTANDING = "agentinformation_external_outstanding";
+
     private IQAgentInformationHandler handler;
 
+    private DiscoCategoryRegistryWatcher registryWatcher;
+
     @Override
     public void initializePlugin(PluginManager manager, File pluginDirectory)
     {
         handler = new IQAgentInformationHandler();
+
+        // Descriptions that are cached are based on the registry, and must be refreshed when the registry changes.
+        registryWatcher = new DiscoCategoryRegistryWatcher(new File(pluginDirectory, DiscoCategoryRegistry.FILE_NAME), handler::invalidateAll);
+        registryWatcher.run();
+        TaskEngine.getInstance().scheduleAtFixedRate(registryWatcher, REGISTRY_CHECK_INTERVAL, REGISTRY_CHECK_INTERVAL);
+
         XMPPServer.getInstance().getIQRouter().addHandler(handler);
+        InternalComponentManager.getInstance().addListener(handler);
+
+        StatisticsManager.getInstance().addStatistic(STAT_EXTERNAL_REJECTED, new AgentInformationStatistic(
+            "Agent Information: rejected external requests",
+            "Service Discovery requests to external components that were not sent, as the maximum amount of outstanding requests was reached.",
+            "Requests", Statistic.Type.rate, handler::getRejectedExternalQueryCount));
+        StatisticsManager.getInstance().addStatistic(STAT_EXTERNAL_OUTSTANDING, new AgentInformationStatistic(
+            "Agent Information: outstanding external requests",
+            "Service Discovery requests to external components that are awaiting an answer.",
+            "Requests", Statistic.Type.count, handler::getOutstandingExternalQueryCount));
     }
 
     @Override
     public void destroyPlugin()
     {
+        StatisticsManager.getInstance().removeStatistic(STAT_EXTERNAL_REJECTED);
+        StatisticsManager.getInstance().removeStatistic(STAT_EXTERNAL_OUTSTANDING);
+        if (registryWatcher != null) {
+            TaskEngine.getInstance().cancelScheduledTask(registryWatcher);
+            registryWatcher = null;
+        }
         if (handler != null) {
+            InternalComponentManager.getInstance().removeListener(handler);
             XMPPServer.getInstance().getIQRouter().removeHandler(handler);
+            handler.stop();
             handler = null;
         }
     }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.jivesoftware.openfire.stats.Statistic;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A statistic of this plugin, that is published through Openfire's statistics manager.
+ *
+ * For statistics of type {@link Statistic.Type#rate}, the value that is sampled is a counter that only increases. Each
+ * sample reports the increase since the previous sample.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class AgentInformationStatistic implements Statistic
+{
+    private final String name;
+    private final String description;
+    private final String units;
+    private final Type type;
+    private final LongSupplier value;
+
+    private long previous;
+
+    /**
+     * Creates a new statistic.
+     *
+     * @param name The name of the statistic.
+     * @param description A description of the statistic.
+     * @param units The units in which the statistic is expressed.
+     * @param type The type of the statistic.
+     * @param value Provides the current value (for a rate: the current value of a counter).
+     */
+    public AgentInformationStatistic(final String name, final String description, final String units, final Type type, final LongSupplier value)
+    {
+        this.name = name;
+        this.description = description;
+        this.units = units;
+        this.type = type;
+        this.value = value;
+        this.previous = type == Type.rate ? value.getAsLong() : 0;
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public Type getStatType()
+    {
+        return type;
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return description;
+    }
+
+    @Override
+    public String getUnits()
+    {
+        return units;
+    }
+
+    @Override
+    public synchronized double sample()
+    {
+        final long current = value.getAsLong();
+        if (type != Type.rate) {
+            return current;
+        }
+        final long result = current - previous;
+        previous = current;
+        return result;
+    }
+
+    @Override
+    public boolean isPartialSample()
+    {
+        // Each cluster node limits its own requests.
+        return true;
+    }
+}
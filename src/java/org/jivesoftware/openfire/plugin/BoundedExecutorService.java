@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor service that limits the amount of tasks that run concurrently on a delegate executor service that
+ * itself is unbounded, such as one that starts a new (virtual) thread for each task.
+ *
+ * Tasks are handed to the delegate immediately. Each task waits for a permit on the thread that executes it, which
+ * prevents submitters from being blocked.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class BoundedExecutorService extends AbstractExecutorService
+{
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+
+    /**
+     * Creates a new executor service.
+     *
+     * @param delegate The executor service that executes the tasks.
+     * @param maxConcurrency The maximum amount of tasks that execute concurrently.
+     */
+    public BoundedExecutorService(final ExecutorService delegate, final int maxConcurrency)
+    {
+        this.delegate = delegate;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    @Override
+    public void execute(final Runnable command)
+    {
+        delegate.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                // The executor is shutting down.
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                command.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    @Override
+    public void shutdown()
+    {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException
+    {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Limits the amount of asynchronous requests that are outstanding concurrently, to prevent an entity from being
+ * flooded with requests.
+ *
+ * When the limit is reached, new requests are queued, up to a maximum queue size. A request that can't be queued is
+ * rejected. When the maximum queue size is zero, requests are rejected as soon as the limit is reached. A queued request
+ * can be abandoned by its caller, in which case it is removed from the queue without being sent.
+ *
+ * Instances are thread-safe.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class Bulkhead
+{
+    private final int maxConcurrent;
+    private final int maxQueued;
+
+    private final Deque<Runnable> queue = new ArrayDeque<>();
+    private int outstanding = 0;
+    private long rejected = 0;
+    private boolean draining = false;
+
+    /**
+     * Creates a new bulkhead.
+     *
+     * @param maxConcurrent The maximum amount of requests that are outstanding concurrently.
+     * @param maxQueued The maximum amount of requests that wait for an outstanding request to complete.
+     */
+    public Bulkhead(final int maxConcurrent, final int maxQueued)
+    {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueued = Math.max(0, maxQueued);
+    }
+
+    /**
+     * Sends a request as soon as the amount of outstanding requests allows it.
+     *
+     * @param request Sends a request, and returns its future result.
+     * @param <T> Type of the result of the request.
+     * @return The future result of the request.
+     * @throws RejectedExecutionException when the request can neither be sent, nor queued.
+     */
+    public <T> CompletableFuture<T> submit(final Supplier<CompletableFuture<T>> request)
+    {
+        return submit(request, new CompletableFuture<>());
+    }
+
+    /**
+     * Sends a request as soon as the amount of outstanding requests allows it, unless the request is abandoned before
+     * that time. The result of a request that is abandoned before it is sent is null.
+     *
+     * Abandoning a request that has been sent has no effect: its result is still awaited.
+     *
+     * @param request Sends a request, and returns its future result.
+     * @param abandoned A future that is completed when the caller is no longer interested in the result.
+     * @param <T> Type of the result of the request.
+     * @return The future result of the request.
+     * @throws RejectedExecutionException when the request can neither be sent, nor queued.
+     */
+    public <T> CompletableFuture<T> submit(final Supplier<CompletableFuture<T>> request, final CompletableFuture<?> abandoned)
+    {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Runnable task = () -> send(request, result, abandoned);
+        final boolean queued;
+        synchronized (this) {
+            queued = outstanding >= maxConcurrent;
+            if (queued) {
+                if (queue.size() >= maxQueued) {
+                    rejected++;
+                    throw new RejectedExecutionException("Maximum amount of outstanding and queued requests reached.");
+                }
+                queue.add(task);
+            } else {
+                outstanding++;
+            }
+        }
+
+        if (queued) {
+            // Free the position in the queue as soon as the request is abandoned, rather than when it is its turn.
+            abandoned.thenRun(() -> {
+                if (dequeue(task)) {
+                    result.complete(null);
+                }
+            });
+        } else {
+            task.run();
+        }
+        return result;
+    }
+
+    /**
+     * Removes a request from the queue.
+     *
+     * @param task The task that sends the request.
+     * @return true if the request was queued, false if it has been sent already.
+     */
+    private synchronized boolean dequeue(final Runnable task)
+    {
+        return queue.remove(task);
+    }
+
+    private <T> void send(final Supplier<CompletableFuture<T>> request, final CompletableFuture<T> result, final CompletableFuture<?> abandoned)
+    {
+        if (abandoned.isDone()) {
+            release();
+            result.complete(null);
+            return;
+        }
+
+        CompletableFuture<T> response;
+        try {
+            response = request.get();
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+
+        response.whenComplete((value, throwable) -> {
+            release();
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(value);
+            }
+        });
+    }
+
+    /**
+     * Frees the slot of a completed request, and sends queued requests for as long as slots are available.
+     *
+     * A queued request can complete immediately, which causes this method to be invoked again while it is sending
+     * requests. Such invocations only free a slot: the invocation that is already sending requests picks them up. This
+     * prevents the stack from growing with the amount of queued requests.
+     */
+    private void release()
+    {
+        synchronized (this) {
+            outstanding--;
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+
+        while (true) {
+            final Runnable next;
+            synchronized (this) {
+                if (outstanding >= maxConcurrent || queue.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                outstanding++;
+                next = queue.poll();
+            }
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    draining = false;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of requests that are outstanding.
+     *
+     * @return an amount of requests.
+     */
+    public synchronized int getOutstanding()
+    {
+        return outstanding;
+    }
+
+    /**
+     * Returns the amount of requests that wait to be sent.
+     *
+     * @return an amount of requests.
+     */
+    public synchronized int getQueued()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Returns the amount of requests that were rejected since this instance was created.
+     *
+     * @return an amount of requests.
+     */
+    public synchronized long getRejected()
+    {
+        return rejected;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+/**
+ * Tracks the responsiveness of an entity, to prevent requests from being sent to an entity that has repeatedly failed
+ * to respond.
+ *
+ * The circuit breaker is 'closed' while the entity is responsive. After a number of consecutive failures, the circuit
+ * breaker 'opens': no requests are allowed for a cool-down period. After that period, the circuit breaker becomes
+ * 'half-open', allowing one request to probe the entity. When that request succeeds, the circuit breaker closes again.
+ * When it fails, the circuit breaker opens for another cool-down period.
+ *
+ * Instances are thread-safe.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class CircuitBreaker
+{
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long coolDown;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt;
+
+    /**
+     * Creates a new circuit breaker, in the 'closed' state.
+     *
+     * @param failureThreshold The amount of consecutive failures after which the circuit breaker opens.
+     * @param coolDown The amount of milliseconds that the circuit breaker remains open.
+     */
+    public CircuitBreaker(final int failureThreshold, final long coolDown)
+    {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.coolDown = coolDown;
+    }
+
+    /**
+     * Checks if a request is allowed to be sent. When this method returns true, the caller must report the outcome of
+     * the request by invoking either {@link #recordSuccess()} or {@link #recordFailure()}.
+     *
+     * @return true if a request can be sent, otherwise false.
+     */
+    public synchronized boolean allowRequest()
+    {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < coolDown) {
+                    return false;
+                }
+                // Allow exactly one request to probe the entity.
+                state = State.HALF_OPEN;
+                return true;
+            case HALF_OPEN:
+            default:
+                // A probe is already in progress.
+                return false;
+        }
+    }
+
+    /**
+     * Records that a request was answered.
+     */
+    public synchronized void recordSuccess()
+    {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Records that a request was not answered.
+     */
+    public synchronized void recordFailure()
+    {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+}
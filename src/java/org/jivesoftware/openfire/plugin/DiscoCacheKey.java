@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.jivesoftware.util.cache.CacheSizes;
+import org.jivesoftware.util.cache.Cacheable;
+import org.jivesoftware.util.cache.CannotCalculateSizeException;
+import org.xmpp.packet.JID;
+
+import java.util.Objects;
+
+/**
+ * Identifies cached Service Discovery information: the combination of the entity that is queried and the visibility
+ * class of the entity on behalf of which the query is performed.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public final class DiscoCacheKey implements Cacheable
+{
+    private final JID address;
+    private final VisibilityClass visibility;
+
+    public DiscoCacheKey(final JID address, final VisibilityClass visibility)
+    {
+        this.address = Objects.requireNonNull(address);
+        this.visibility = Objects.requireNonNull(visibility);
+    }
+
+    public JID getAddress()
+    {
+        return address;
+    }
+
+    public VisibilityClass getVisibility()
+    {
+        return visibility;
+    }
+
+    @Override
+    public boolean equals(final Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final DiscoCacheKey that = (DiscoCacheKey) o;
+        return address.equals(that.address) && visibility == that.visibility;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(address, visibility);
+    }
+
+    @Override
+    public int getCachedSize() throws CannotCalculateSizeException
+    {
+        int size = CacheSizes.sizeOfObject(); // overhead of object
+        size += CacheSizes.sizeOfString(address.toString()); // address
+        size += CacheSizes.sizeOfObject(); // visibility (reference to enum constant)
+        return size;
+    }
+
+    @Override
+    public String toString()
+    {
+        return address + " (" + visibility + ")";
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The official registry of values for the 'category' and 'type' attributes of the <identity/> element within the
+ * 'http://jabber.org/protocol/disco#info' namespace (see XEP-0030: Service Discovery), as registered with the XMPP
+ * Registrar, mapped to the human-readable description of each identity.
+ *
+ * The registry is loaded from a file that uses the format in which the XMPP Registrar publishes the registry. A copy
+ * of the registry is bundled with this plugin.
+ *
+ * Instances are immutable, and can safely be shared between threads. The instance that is in use can be replaced at
+ * runtime.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ * @see <a href="https://xmpp.org/registrar/disco-categories.html">Official Registry</a>
+ */
+public final class DiscoCategoryRegistry
+{
+    private static final Logger Log = LoggerFactory.getLogger(DiscoCategoryRegistry.class);
+
+    /**
+     * The name of the registry file, as bundled with the plugin, and as used for an optional override file.
+     */
+    public static final String FILE_NAME = "disco-categories.xml";
+
+    private static final AtomicReference<DiscoCategoryRegistry> INSTANCE = new AtomicReference<>(loadBundled());
+
+    /**
+     * Descriptions, by type, by category.
+     */
+    private final Map<String, Map<String, String>> descriptions;
+
+    private DiscoCategoryRegistry(final Map<String, Map<String, String>> descriptions)
+    {
+        this.descriptions = descriptions;
+    }
+
+    /**
+     * Returns the registry that is in use.
+     *
+     * @return a registry.
+     */
+    public static DiscoCategoryRegistry getInstance()
+    {
+        return INSTANCE.get();
+    }
+
+    /**
+     * Replaces the registry that is in use.
+     *
+     * @param registry The registry to use.
+     */
+    public static void setInstance(final DiscoCategoryRegistry registry)
+    {
+        INSTANCE.set(registry);
+    }
+
+    /**
+     * Loads the registry that is bundled with this plugin. When that fails, an empty registry is returned.
+     *
+     * @return a registry.
+     */
+    public static DiscoCategoryRegistry loadBundled()
+    {
+        try (final InputStream in = DiscoCategoryRegistry.class.getResourceAsStream("/" + FILE_NAME)) {
+            if (in == null) {
+                Log.error("Unable to find the bundled disco category registry '{}'. Identities will not be described.", FILE_NAME);
+                return new DiscoCategoryRegistry(Collections.emptyMap());
+            }
+            return parse(in);
+        } catch (Exception e) {
+            Log.error("Unable to load the bundled disco category registry '{}'. Identities will not be described.", FILE_NAME, e);
+            return new DiscoCategoryRegistry(Collections.emptyMap());
+        }
+    }
+
+    /**
+     * Parses a registry, in the format that is used by the XMPP Registrar.
+     *
+     * @param in The stream from which to read the registry.
+     * @return a registry.
+     * @throws DocumentException when the stream does not contain valid XML.
+     * @throws SAXException when the XML parser could not be configured.
+     */
+    public static DiscoCategoryRegistry parse(final InputStream in) throws DocumentException, SAXException
+    {
+        final SAXReader reader = new SAXReader();
+        reader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        final Document document = reader.read(in);
+
+        final Map<String, Map<String, String>> byCategory = new HashMap<>();
+        for (final Element categoryElement : document.getRootElement().elements("category")) {
+            final String category = categoryElement.elementTextTrim("name");
+            if (category == null || category.isEmpty()) {
+                continue;
+            }
+            final Map<String, String> byType = new HashMap<>();
+            for (final Element typeElement : categoryElement.elements("type")) {
+                final String type = typeElement.elementTextTrim("name");
+                final String description = typeElement.elementTextTrim("desc");
+                if (type == null || type.isEmpty() || description == null || description.isEmpty()) {
+                    continue;
+                }
+                byType.put(type.intern(), description.intern());
+            }
+            byCategory.computeIfAbsent(category.intern(), key -> new HashMap<>()).putAll(byType);
+        }
+
+        for (final Map.Entry<String, Map<String, String>> entry : byCategory.entrySet()) {
+            entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+        }
+        return new DiscoCategoryRegistry(Collections.unmodifiableMap(byCategory));
+    }
+
+    /**
+     * Returns the human-readable description of a disco#info identity.
+     *
+     * @param category The category of the identity.
+     * @param type The type of the identity.
+     * @return A human readable description, or null if the registry does not define one.
+     */
+    public String getDescription(final String category, final String type)
+    {
+        final Map<String, String> byType = descriptions.get(category);
+        return byType == null ? null : byType.get(type);
+    }
+
+    /**
+     * Returns the amount of identities (combinations of category and type) in this registry.
+     *
+     * @return the size of the registry.
+     */
+    public int size()
+    {
+        int result = 0;
+        for (final Map<String, String> byType : descriptions.values()) {
+            result += byType.size();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.TimerTask;
+
+/**
+ * Periodically checks an optional file that overrides the disco category registry that is bundled with this plugin.
+ * When the file is added or changed, it is loaded and replaces the registry that is in use. When the file is removed,
+ * the bundled registry is restored.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ * @see DiscoCategoryRegistry
+ */
+public class DiscoCategoryRegistryWatcher extends TimerTask
+{
+    private static final Logger Log = LoggerFactory.getLogger(DiscoCategoryRegistryWatcher.class);
+
+    private final File file;
+    private final Runnable onChange;
+
+    /**
+     * The last-modified timestamp of the file that was last loaded, or 0 if the bundled registry is in use.
+     */
+    private long loadedTimestamp = 0;
+
+    /**
+     * Creates a new watcher.
+     *
+     * @param file The file that, if it exists, overrides the bundled registry.
+     * @param onChange Invoked after the registry that is in use has been replaced.
+     */
+    public DiscoCategoryRegistryWatcher(final File file, final Runnable onChange)
+    {
+        this.file = file;
+        this.onChange = onChange;
+    }
+
+    @Override
+    public synchronized void run()
+    {
+        final long timestamp = file.isFile() ? file.lastModified() : 0;
+        if (timestamp == loadedTimestamp) {
+            return;
+        }
+
+        if (timestamp == 0) {
+            Log.info("Override file {} was removed. Restoring the bundled disco category registry.", file);
+            DiscoCategoryRegistry.setInstance(DiscoCategoryRegistry.loadBundled());
+        } else {
+            try (final InputStream in = new FileInputStream(file)) {
+                final DiscoCategoryRegistry registry = DiscoCategoryRegistry.parse(in);
+                DiscoCategoryRegistry.setInstance(registry);
+                Log.info("Loaded {} disco category registry entries from override file {}", registry.size(), file);
+            } catch (Exception e) {
+                Log.warn("Unable to load disco category registry override file {}. The registry that was in use remains in use.", file, e);
+                // Do not retry until the file changes again.
+                loadedTimestamp = timestamp;
+                return;
+            }
+        }
+        loadedTimestamp = timestamp;
+        onChange.run();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.dom4j.Element;
+import org.jivesoftware.util.cache.CacheSizes;
+import org.jivesoftware.util.cache.Cacheable;
+import org.jivesoftware.util.cache.CannotCalculateSizeException;
+
+import java.util.Iterator;
+
+/**
+ * An immutable, compact representation of the properties of a disco#info query element that are relevant to
+ * XEP-0094: Agent Information.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public final class DiscoInfoDescriptor implements Cacheable
+{
+    /**
+     * Flag that indicates that the entity has an identity of the 'gateway' category.
+     */
+    public static final int GATEWAY = 1;
+
+    /**
+     * Flag that indicates that the entity has an identity of the 'conference' category.
+     */
+    public static final int CONFERENCE = 1 << 1;
+
+    /**
+     * Flag that indicates that the entity has an identity of the 'directory' category and 'user' type.
+     */
+    public static final int USER_DIRECTORY = 1 << 2;
+
+    /**
+     * Flag that indicates that the entity supports the 'jabber:iq:register' feature.
+     */
+    public static final int REGISTER = 1 << 3;
+
+    /**
+     * Flag that indicates that the entity supports the 'jabber:iq:search' feature.
+     */
+    public static final int SEARCH = 1 << 4;
+
+    /**
+     * A descriptor for an entity of which no information is available.
+     */
+    public static final DiscoInfoDescriptor EMPTY = new DiscoInfoDescriptor(0, null, null);
+
+    private final int flags;
+    private final String gatewayType;
+    private final String description;
+
+    public DiscoInfoDescriptor(final int flags, final String gatewayType, final String description)
+    {
+        this.flags = flags;
+        this.gatewayType = gatewayType;
+        this.description = description;
+    }
+
+    /**
+     * Creates a descriptor from a disco#info query element, by inspecting each of its children once.
+     *
+     * @param discoInfoElement The element to parse (can be null).
+     * @return A descriptor.
+     */
+    public static DiscoInfoDescriptor parse(final Element discoInfoElement)
+    {
+        if (discoInfoElement == null) {
+            return EMPTY;
+        }
+
+        final Builder builder = new Builder();
+        for (final Element child : discoInfoElement.elements()) {
+            switch (child.getName()) {
+                case "identity":
+                    builder.identity(child.attributeValue("category"), child.attributeValue("type"));
+                    break;
+                case "feature":
+                    builder.feature(child.attributeValue("var"));
+                    break;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a descriptor from the identities and features that are provided by a Service Discovery information
+     * provider, without the need of a disco#info query element.
+     *
+     * @param identities 'identity' elements (can be null).
+     * @param features feature names (can be null).
+     * @return A descriptor.
+     */
+    public static DiscoInfoDescriptor from(final Iterator<Element> identities, final Iterator<String> features)
+    {
+        final Builder builder = new Builder();
+        while (identities != null && identities.hasNext()) {
+            final Element identity = identities.next();
+            builder.identity(identity.attributeValue("category"), identity.attributeValue("type"));
+        }
+        while (features != null && features.hasNext()) {
+            builder.feature(features.next());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Accumulates identities and features into a descriptor.
+     */
+    private static class Builder
+    {
+        private int flags = 0;
+        private String gatewayType = null;
+        private String description = null;
+
+        void identity(final String category, final String type)
+        {
+            if (category == null) {
+                return;
+            }
+            switch (category) {
+                case "gateway":
+                    if ((flags & GATEWAY) == 0) {
+                        flags |= GATEWAY;
+                        gatewayType = type;
+                    }
+                    break;
+                case "conference":
+                    flags |= CONFERENCE;
+                    break;
+                case "directory":
+                    if ("user".equals(type)) {
+                        flags |= USER_DIRECTORY;
+                    }
+                    break;
+            }
+            if (description == null && type != null) {
+                description = DiscoCategoryRegistry.getInstance().getDescription(category, type);
+            }
+        }
+
+        void feature(final String var)
+        {
+            if ("jabber:iq:register".equals(var)) {
+                flags |= REGISTER;
+            } else if ("jabber:iq:search".equals(var)) {
+                flags |= SEARCH;
+            }
+        }
+
+        DiscoInfoDescriptor build()
+        {
+            if (flags == 0 && description == null) {
+                return EMPTY;
+            }
+            return new DiscoInfoDescriptor(flags, gatewayType, description);
+        }
+    }
+
+    public boolean is(final int flag)
+    {
+        return (flags & flag) == flag;
+    }
+
+    public int getFlags()
+    {
+        return flags;
+    }
+
+    public boolean isTransport()
+    {
+        return is(GATEWAY);
+    }
+
+    public boolean isGroupchat()
+    {
+        return is(CONFERENCE);
+    }
+
+    public boolean isUserDirectory()
+    {
+        return is(USER_DIRECTORY);
+    }
+
+    public boolean supportsRegister()
+    {
+        return is(REGISTER);
+    }
+
+    public boolean supportsSearch()
+    {
+        return is(SEARCH);
+    }
+
+    /**
+     * Returns the type of the first identity of the 'gateway' category.
+     *
+     * @return a gateway type, or null.
+     */
+    public String getGatewayType()
+    {
+        return gatewayType;
+    }
+
+    /**
+     * Returns the human-readable description of the first identity for which the registry defines one.
+     *
+     * @return a description, or null.
+     */
+    public String getDescription()
+    {
+        return description;
+    }
+
+    /**
+     * Returns the value of the 'service' child element of an agent, as defined in XEP-0094.
+     *
+     * @return a service, or null.
+     */
+    public String getService()
+    {
+        if (isTransport()) {
+            return gatewayType;
+        }
+        if (isUserDirectory()) {
+            return "jud";
+        }
+        // The XEP defines that this value holds 'private' or 'public' for a conference service. Modern conference services do not have such an attribute.
+        return null;
+    }
+
+    @Override
+    public int getCachedSize() throws CannotCalculateSizeException
+    {
+        int size = CacheSizes.sizeOfObject(); // overhead of object
+        size += CacheSizes.sizeOfInt(); // flags
+        size += CacheSizes.sizeOfString(gatewayType); // gatewayType
+        size += CacheSizes.sizeOfString(description); // description
+        return size;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DiscoInfoDescriptor{flags=" + Integer.toBinaryString(flags) + ", gatewayType='" + gatewayType + "', description='" + description + "'}";
+    }
+}
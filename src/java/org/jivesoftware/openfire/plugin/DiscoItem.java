@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.dom4j.Element;
+import org.jivesoftware.util.cache.CacheSizes;
+import org.jivesoftware.util.cache.Cacheable;
+import org.jivesoftware.util.cache.CannotCalculateSizeException;
+import org.xmpp.packet.JID;
+
+import java.util.Objects;
+
+/**
+ * An item, as obtained through a Service Discovery disco#items request.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public final class DiscoItem implements Cacheable
+{
+    private final JID jid;
+    private final String name;
+
+    public DiscoItem(final JID jid, final String name)
+    {
+        this.jid = Objects.requireNonNull(jid);
+        this.name = name;
+    }
+
+    /**
+     * Parses a disco#items 'item' element.
+     *
+     * @param itemElement The element to parse.
+     * @return The item that is represented by the element.
+     * @throws IllegalArgumentException when the element does not have a valid 'jid' attribute value.
+     */
+    public static DiscoItem from(final Element itemElement)
+    {
+        final String jidValue = itemElement.attributeValue("jid");
+        if (jidValue == null) {
+            throw new IllegalArgumentException("Item element does not have a 'jid' attribute.");
+        }
+        return new DiscoItem(new JID(jidValue), itemElement.attributeValue("name"));
+    }
+
+    public JID getJid()
+    {
+        return jid;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public boolean equals(final Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final DiscoItem that = (DiscoItem) o;
+        return jid.equals(that.jid) && Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(jid, name);
+    }
+
+    @Override
+    public int getCachedSize() throws CannotCalculateSizeException
+    {
+        int size = CacheSizes.sizeOfObject(); // overhead of object
+        size += CacheSizes.sizeOfString(jid.toString()); // jid
+        size += CacheSizes.sizeOfString(name); // name
+        return size;
+    }
+
+    @Override
+    public String toString()
+    {
+        return jid + (name == null ? "" : " (" + name + ")");
+    }
+}
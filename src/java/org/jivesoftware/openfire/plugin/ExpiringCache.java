@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * A thread-safe cache that holds a limited amount of entries, each of which expires after a fixed period of time.
+ *
+ * When the maximum amount of entries is exceeded, the least recently used entry is evicted.
+ *
+ * @param <K> Type of the keys of this cache.
+ * @param <V> Type of the values of this cache.
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class ExpiringCache<K, V>
+{
+    private final long timeToLive;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /**
+     * Creates a new, empty cache.
+     *
+     * @param maxEntries The maximum amount of entries in the cache.
+     * @param timeToLive The amount of milliseconds after which an entry expires.
+     */
+    public ExpiringCache(final int maxEntries, final long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, ExpiringCache.Entry<V>> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the value that is cached for a key.
+     *
+     * @param key The key of the value.
+     * @return the cached value, or null if no (unexpired) value is cached.
+     */
+    public synchronized V get(final K key)
+    {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Adds a value to the cache, replacing any value that was cached for the same key.
+     *
+     * @param key The key of the value.
+     * @param value The value to cache (cannot be null).
+     */
+    public synchronized void put(final K key, final V value)
+    {
+        if (timeToLive <= 0) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, System.currentTimeMillis() + timeToLive));
+    }
+
+    /**
+     * Returns the value that is cached for a key, computing and caching a value if none is cached. Either way, the
+     * period after which the entry expires starts anew. Entries that are used through this method therefore only expire
+     * when they have not been used for the time to live of this cache.
+     *
+     * @param key The key of the value.
+     * @param mappingFunction The function that computes a value when none is cached (cannot return null).
+     * @return the cached or computed value.
+     */
+    public synchronized V computeIfAbsent(final K key, final Function<? super K, ? extends V> mappingFunction)
+    {
+        V value = get(key);
+        if (value == null) {
+            value = mappingFunction.apply(key);
+        }
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * Removes the value that is cached for a key.
+     *
+     * @param key The key of the value.
+     */
+    public synchronized void remove(final K key)
+    {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes all entries that match a predicate.
+     *
+     * The predicate is evaluated while holding the lock of this cache, and must not access the cache.
+     *
+     * @param predicate The predicate that identifies the keys and values to remove.
+     */
+    public synchronized void removeIf(final BiPredicate<K, V> predicate)
+    {
+        final Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<K, Entry<V>> entry = iterator.next();
+            if (predicate.test(entry.getKey(), entry.getValue().value)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all values from the cache.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    private static class Entry<V>
+    {
+        private final V value;
+        private final long expires;
+
+        private Entry(final V value, final long expires)
+        {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
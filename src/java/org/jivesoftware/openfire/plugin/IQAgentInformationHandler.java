@@ -15,25 +15,35 @@
  */
 package org.jivesoftware.openfire.plugin;
 
+import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.dom4j.QName;
 import org.jivesoftware.openfire.IQHandlerInfo;
-import org.jivesoftware.openfire.IQRouter;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
+import org.jivesoftware.openfire.component.ComponentEventListener;
+import org.jivesoftware.openfire.component.InternalComponentManager;
+import org.jivesoftware.openfire.disco.DiscoInfoProvider;
 import org.jivesoftware.openfire.disco.IQDiscoInfoHandler;
 import org.jivesoftware.openfire.disco.IQDiscoItemsHandler;
 import org.jivesoftware.openfire.disco.ServerFeaturesProvider;
 import org.jivesoftware.openfire.handler.IQHandler;
+import org.jivesoftware.openfire.muc.MultiUserChatService;
+import org.jivesoftware.openfire.pubsub.PubSubModule;
+import org.jivesoftware.util.JiveGlobals;
+import org.jivesoftware.util.NamedThreadFactory;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xmpp.component.IQResultListener;
 import org.xmpp.packet.IQ;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.PacketError;
 
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * An IQ Handler that processes IQ requests sent to the server that contain queries related to the protocol described
@@ -42,16 +52,368 @@ import java.util.concurrent.TimeUnit;
  * @author Guus der Kinderen, guus@goodbytes.nl
  * @see <a href="https://xmpp.org/extensions/xep-0094.html">XEP-0094: Agent Information</a>
  */
-public class IQAgentInformationHandler extends IQHandler implements ServerFeaturesProvider
+public class IQAgentInformationHandler extends IQHandler implements ServerFeaturesProvider, ComponentEventListener
 {
     private static final Logger Log = LoggerFactory.getLogger(IQAgentInformationHandler.class);
 
+    /**
+     * Name of the property that defines the maximum number of service discovery requests that are performed
+     * concurrently, when probing the items of an entity.
+     */
+    public static final String PROPERTY_PROBE_THREADS = "plugin.agentinformation.probe.threads";
+
+    /**
+     * Name of the property that, when 'true', causes each service discovery request that is processed by a local handler
+     * to be executed on its own virtual thread, instead of on a pool of platform threads. This requires a Java runtime
+     * that supports virtual threads (Java 21 or later).
+     */
+    public static final String PROPERTY_PROBE_VIRTUAL_THREADS = "plugin.agentinformation.probe.virtual";
+
+    /**
+     * Name of the property that defines the maximum number of service discovery requests that are performed
+     * concurrently on virtual threads.
+     */
+    public static final String PROPERTY_PROBE_VIRTUAL_THREADS_MAX = "plugin.agentinformation.probe.virtual.max";
+
+    /**
+     * Name of the property that defines the amount of milliseconds to wait for an answer to a request that is sent to
+     * an external entity.
+     */
+    public static final String PROPERTY_EXTERNAL_TIMEOUT = "plugin.agentinformation.external.timeout";
+
+    /**
+     * Name of the property that, when 'true', causes requests to be processed asynchronously: instead of blocking the
+     * IQ handler thread while Service Discovery is performed, the response is routed when all information is available.
+     */
+    public static final String PROPERTY_ASYNCHRONOUS = "plugin.agentinformation.asynchronous";
+
+    /**
+     * Name of the property that defines the amount of milliseconds that disco#info results are cached. A value of zero
+     * or less disables the cache.
+     */
+    public static final String PROPERTY_INFO_CACHE_TTL = "plugin.agentinformation.cache.info.ttl";
+
+    /**
+     * Name of the property that defines the amount of milliseconds that disco#items results are cached. A value of
+     * zero or less disables the cache.
+     */
+    public static final String PROPERTY_ITEMS_CACHE_TTL = "plugin.agentinformation.cache.items.ttl";
+
+    /**
+     * Name of the property that, when 'false', causes Service Discovery results to be cached on each cluster node
+     * individually, instead of in caches that are shared by all nodes of the cluster.
+     */
+    public static final String PROPERTY_CACHE_CLUSTERED = "plugin.agentinformation.cache.clustered";
+
+    /**
+     * Name of the cache that holds disco#info results.
+     */
+    public static final String INFO_CACHE_NAME = "Agent Information Disco Info";
+
+    /**
+     * Name of the cache that holds disco#items results.
+     */
+    public static final String ITEMS_CACHE_NAME = "Agent Information Disco Items";
+
+    /**
+     * Name of the property that defines the amount of milliseconds that rendered responses are cached. A value of zero
+     * or less disables the cache.
+     */
+    public static final String PROPERTY_RESPONSE_CACHE_TTL = "plugin.agentinformation.cache.response.ttl";
+
+    /**
+     * Name of the property that defines the maximum amount of rendered responses that are cached.
+     */
+    public static final String PROPERTY_RESPONSE_CACHE_SIZE = "plugin.agentinformation.cache.response.size";
+
+    /**
+     * Name of the property that defines the amount of consecutive unanswered requests after which an external
+     * component is no longer queried, for a cool-down period.
+     */
+    public static final String PROPERTY_CIRCUIT_FAILURE_THRESHOLD = "plugin.agentinformation.circuit.threshold";
+
+    /**
+     * Name of the property that defines the amount of milliseconds during which an unresponsive external component is
+     * not queried, before it is probed again.
+     */
+    public static final String PROPERTY_CIRCUIT_COOLDOWN = "plugin.agentinformation.circuit.cooldown";
+
+    /**
+     * Name of the property that defines the maximum amount of milliseconds that is spent on finding the agents of an
+     * entity. When this period expires, the agents that were found so far are returned. A value of zero or less
+     * disables the deadline.
+     */
+    public static final String PROPERTY_DEADLINE = "plugin.agentinformation.deadline";
+
+    /**
+     * Name of the property that defines the maximum amount of requests that are outstanding concurrently, per external
+     * component. A value of zero or less disables the limit.
+     */
+    public static final String PROPERTY_BULKHEAD_CONCURRENCY = "plugin.agentinformation.bulkhead.concurrency";
+
+    /**
+     * Name of the property that defines the maximum amount of requests that wait to be sent to an external component,
+     * when its limit of outstanding requests is reached. When zero, such requests are not sent at all.
+     */
+    public static final String PROPERTY_BULKHEAD_QUEUE = "plugin.agentinformation.bulkhead.queue";
+
+    /**
+     * Name of the property that defines the maximum amount of requests to external components that are outstanding
+     * concurrently, for all components combined. A value of zero or less disables the limit.
+     */
+    public static final String PROPERTY_EXTERNAL_MAX = "plugin.agentinformation.external.max";
+
+    /**
+     * Name of the property that defines what happens to a request to an external component when the maximum amount of
+     * outstanding requests is reached: 'wait' (queue the request) or 'skip' (do not send the request, and use the
+     * information that was last received from the component, if any).
+     */
+    public static final String PROPERTY_EXTERNAL_POLICY = "plugin.agentinformation.external.policy";
+
+    /**
+     * Name of the property that defines the maximum amount of requests to external components that wait to be sent,
+     * when the 'wait' policy is used.
+     */
+    public static final String PROPERTY_EXTERNAL_QUEUE = "plugin.agentinformation.external.queue";
+
+    /**
+     * Name of the property that defines the amount of requests for agents that an entity can sustainably send per
+     * minute, excluding requests that are answered from cache. A value of zero or less disables rate limiting.
+     */
+    public static final String PROPERTY_RATE_LIMIT = "plugin.agentinformation.ratelimit.rate";
+
+    /**
+     * Name of the property that defines the amount of requests for agents that an entity can send in a burst, excluding
+     * requests that are answered from cache.
+     */
+    public static final String PROPERTY_RATE_LIMIT_BURST = "plugin.agentinformation.ratelimit.burst";
+
     private final IQHandlerInfo info;
 
+    /**
+     * Executes the Service Discovery requests that are processed by local handlers.
+     */
+    private final ExecutorService probeExecutor;
+
+    /**
+     * Schedules the expiry of deadlines.
+     */
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * Correlates requests that are sent to external components with their responses.
+     */
+    private final IQCorrelator correlator;
+
+    /**
+     * Caches descriptors of disco#info results, by the address of the entity that is described and the visibility class of the
+     * entity on behalf of which the information was obtained. Null when caching is disabled.
+     */
+    private final Cache<DiscoCacheKey, DiscoInfoDescriptor> infoCache;
+
+    /**
+     * Caches disco#items entries, by the address of the entity that was queried and the visibility class of the entity
+     * on behalf of which the items were obtained. Null when caching is disabled.
+     */
+    private final Cache<DiscoCacheKey, List<DiscoItem>> itemsCache;
+
+    /**
+     * Caches the child elements of responses, by the address of the entity of which agents were requested and the
+     * visibility class of the requesting entity.
+     */
+    private final ExpiringCache<DiscoCacheKey, Element> responseCache;
+
+    /**
+     * Tracks the responsiveness of external components, by domain.
+     */
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * Limits the amount of outstanding requests to external components, by domain.
+     */
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * Limits the amount of outstanding requests to all external components combined. Null when there is no limit.
+     */
+    private final Bulkhead externalLimiter;
+
+    /**
+     * The time at which a rejection by the limit of outstanding requests to external components was last logged.
+     */
+    private final AtomicLong rejectionLoggedAt = new AtomicLong();
+
+    /**
+     * The minimum amount of milliseconds between log messages that report rejections by the limit of outstanding requests
+     * to external components.
+     */
+    private static final long REJECTION_LOG_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Descriptors of the disco#info results that were last received from external components. These are used when an external
+     * component is unresponsive.
+     */
+    private final ConcurrentMap<DiscoCacheKey, DiscoInfoDescriptor> lastKnownInfo = new ConcurrentHashMap<>();
+
+    /**
+     * The route by which entities of a domain are reached, by domain.
+     */
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+
+    /**
+     * The maximum amount of routes that is cached.
+     */
+    private static final int MAX_CACHED_ROUTES = 10000;
+
+    /**
+     * Incremented whenever cached routes are invalidated. This allows a route that was determined concurrently with an
+     * invalidation, and that therefore might be stale, to be identified.
+     */
+    private final AtomicLong routesGeneration = new AtomicLong();
+
+    /**
+     * Incremented whenever cached Service Discovery information is invalidated. This allows information that was
+     * obtained concurrently with an invalidation, and that therefore might be stale, to be identified.
+     */
+    private final AtomicLong cacheGeneration = new AtomicLong();
+
+    /**
+     * Canonical instances of agents. By reusing equal instances between requests, each agent is rendered only once.
+     */
+    private final ConcurrentMap<AgentInformation, AgentInformation> canonicalAgents = new ConcurrentHashMap<>();
+
+    /**
+     * The maximum amount of canonical instances of agents that is retained.
+     */
+    private static final int MAX_CANONICAL_AGENTS = 10000;
+
+    /**
+     * Limits the rate at which entities request agents, by bare JID of the requesting entity. A limiter is only retained
+     * until it would have been refilled completely, at which point it is equivalent to a new one.
+     */
+    private final ExpiringCache<JID, TokenBucket> rateLimiters;
+
+    /**
+     * The maximum amount of entities for which the rate of requests is tracked.
+     */
+    private static final int MAX_RATE_LIMITERS = 10000;
+
+    /**
+     * Discoveries of agents that are in progress, by the address of the entity of which agents are requested and the
+     * visibility class of the requesting entity.
+     */
+    private final ConcurrentMap<DiscoCacheKey, CompletableFuture<Element>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * disco#info requests that are in progress, by the address of the entity that is described and the visibility class
+     * of the entity on behalf of which the information is obtained.
+     */
+    private final ConcurrentMap<DiscoCacheKey, SharedInfoRequest> inFlightInfo = new ConcurrentHashMap<>();
+
     public IQAgentInformationHandler()
     {
         super("Agent Information handler");
         this.info = new IQHandlerInfo("query", "jabber:iq:agents");
+
+        this.probeExecutor = createProbeExecutor();
+
+        this.timer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("agentinformation-timer-", true, null, null, null));
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.correlator = new IQCorrelator(timer, probeExecutor);
+
+        final long infoCacheTTL = JiveGlobals.getLongProperty(PROPERTY_INFO_CACHE_TTL, TimeUnit.HOURS.toMillis(1));
+        this.infoCache = infoCacheTTL > 0 ? createCache(INFO_CACHE_NAME, infoCacheTTL) : null;
+        final long itemsCacheTTL = JiveGlobals.getLongProperty(PROPERTY_ITEMS_CACHE_TTL, TimeUnit.HOURS.toMillis(1));
+        this.itemsCache = itemsCacheTTL > 0 ? createCache(ITEMS_CACHE_NAME, itemsCacheTTL) : null;
+        this.responseCache = new ExpiringCache<>(JiveGlobals.getIntProperty(PROPERTY_RESPONSE_CACHE_SIZE, 100), JiveGlobals.getLongProperty(PROPERTY_RESPONSE_CACHE_TTL, TimeUnit.MINUTES.toMillis(5)));
+
+        // A bucket that has not been used for this long has been refilled completely.
+        final long refillTime = TimeUnit.MINUTES.toMillis(Math.max(1, JiveGlobals.getIntProperty(PROPERTY_RATE_LIMIT_BURST, 10))) / Math.max(1, JiveGlobals.getIntProperty(PROPERTY_RATE_LIMIT, 30));
+        this.rateLimiters = new ExpiringCache<>(MAX_RATE_LIMITERS, Math.max(1, refillTime));
+
+        final int externalMax = JiveGlobals.getIntProperty(PROPERTY_EXTERNAL_MAX, 100);
+        final boolean skip = "skip".equalsIgnoreCase(JiveGlobals.getProperty(PROPERTY_EXTERNAL_POLICY, "wait"));
+        this.externalLimiter = externalMax > 0 ? new Bulkhead(externalMax, skip ? 0 : JiveGlobals.getIntProperty(PROPERTY_EXTERNAL_QUEUE, 1000)) : null;
+    }
+
+    @Override
+    public void stop()
+    {
+        super.stop();
+        probeExecutor.shutdownNow();
+        correlator.stop();
+        timer.shutdownNow();
+        if (infoCache != null) {
+            CacheFactory.destroyCache(INFO_CACHE_NAME);
+        }
+        if (itemsCache != null) {
+            CacheFactory.destroyCache(ITEMS_CACHE_NAME);
+        }
+    }
+
+    /**
+     * Creates the executor of Service Discovery requests that are processed by local handlers. Unless configured
+     * otherwise, this is a fixed-size pool of platform threads.
+     *
+     * @return An executor service.
+     */
+    private static ExecutorService createProbeExecutor()
+    {
+        if (JiveGlobals.getBooleanProperty(PROPERTY_PROBE_VIRTUAL_THREADS, false)) {
+            try {
+                // Looked up reflectively, as this plugin is built for Java runtimes that do not support virtual threads.
+                final ExecutorService virtualThreads = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                final int maxConcurrency = Math.max(1, JiveGlobals.getIntProperty(PROPERTY_PROBE_VIRTUAL_THREADS_MAX, 1000));
+                Log.info("Executing Service Discovery requests on virtual threads, of which at most {} run concurrently.", maxConcurrency);
+                return new BoundedExecutorService(virtualThreads, maxConcurrency);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                Log.warn("Unable to use virtual threads (these require Java 21 or later). Using a pool of platform threads instead.", e);
+            }
+        }
+
+        final int threads = Math.max(1, JiveGlobals.getIntProperty(PROPERTY_PROBE_THREADS, 8));
+        final ThreadPoolExecutor result = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory("agentinformation-probe-", true, null, null, null));
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    /**
+     * Creates an Openfire cache. Unless configured otherwise, the cache is shared by all nodes of the cluster, when
+     * clustering is enabled. The cache can be inspected (and its size configured) through the admin console.
+     *
+     * @param name The name of the cache.
+     * @param timeToLive The amount of milliseconds after which a cache entry expires.
+     * @return A cache.
+     */
+    private static <K, V> Cache<K, V> createCache(final String name, final long timeToLive)
+    {
+        final Cache<K, V> cache;
+        if (JiveGlobals.getBooleanProperty(PROPERTY_CACHE_CLUSTERED, true)) {
+            cache = CacheFactory.createCache(name);
+        } else {
+            cache = CacheFactory.createLocalCache(name);
+        }
+        cache.setMaxLifetime(timeToLive);
+        return cache;
+    }
+
+    /**
+     * Removes all entries of an Openfire cache of which the key refers to a particular address.
+     *
+     * @param cache The cache from which to remove entries (can be null).
+     * @param address The address for which to remove entries.
+     */
+    private static void removeAll(final Cache<DiscoCacheKey, ?> cache, final JID address)
+    {
+        if (cache == null) {
+            return;
+        }
+        // Copy the keys, as clustered caches do not necessarily support removal through their key set.
+        for (final DiscoCacheKey key : new ArrayList<>(cache.keySet())) {
+            if (key.getAddress().equals(address)) {
+                cache.remove(key);
+            }
+        }
     }
 
     @Override
@@ -72,79 +434,488 @@ public class IQAgentInformationHandler extends IQHandler implements ServerFeatur
             return reply;
         }
 
-        final Set<AgentInformation> agents = findAgents(packet.getTo(), packet.getFrom());
-        for (final AgentInformation agent : agents) {
-            reply.getChildElement().add(agent.asElement());
+        // When a response was previously rendered for a similar request, reuse it.
+        final DiscoCacheKey cacheKey = new DiscoCacheKey(packet.getTo(), VisibilityClass.of(packet.getFrom()));
+        final Element cached = responseCache.get(cacheKey);
+        if (cached != null) {
+            Log.trace("Using cached response for agents of {} for {}", packet.getTo(), packet.getFrom());
+            reply.setChildElement(cached.createCopy());
+            return reply;
         }
+
+        // Finding agents is expensive. Prevent entities from repeatedly doing so.
+        if (!isWithinRateLimit(packet.getFrom())) {
+            Log.debug("Returning error to {}: too many requests.", packet.getFrom());
+            reply.setError(PacketError.Condition.resource_constraint);
+            return reply;
+        }
+
+        final CompletableFuture<Element> result = discover(cacheKey, packet.getTo(), packet.getFrom());
+
+        if (JiveGlobals.getBooleanProperty(PROPERTY_ASYNCHRONOUS, false)) {
+            // Release the IQ handler thread. The reply is routed when all agents have been found.
+            result.whenComplete((element, throwable) -> {
+                completeReply(reply, element, throwable);
+                XMPPServer.getInstance().getIQRouter().route(reply);
+            });
+            return null;
+        }
+
+        Element payload = null;
+        Throwable failure = null;
+        try {
+            payload = result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        }
+        completeReply(reply, payload, failure);
         return reply;
     }
 
+    /**
+     * Checks if an entity is allowed to perform a request for which agents need to be found. Each invocation of this
+     * method counts as such a request.
+     *
+     * @param requester The address of the requesting entity (can be null).
+     * @return true if the request is allowed, false if the entity has exceeded its rate limit.
+     */
+    protected boolean isWithinRateLimit(final JID requester)
+    {
+        final int rate = JiveGlobals.getIntProperty(PROPERTY_RATE_LIMIT, 30);
+        if (rate <= 0 || requester == null) {
+            return true;
+        }
+
+        // When the maximum amount of limiters is exceeded, the least recently used one is evicted. The limiters of
+        // active requesters are therefore retained, even when many other entities issue requests.
+        final TokenBucket bucket = rateLimiters.computeIfAbsent(requester.asBareJID(), jid -> new TokenBucket(JiveGlobals.getIntProperty(PROPERTY_RATE_LIMIT_BURST, 10), rate));
+        return bucket.tryConsume();
+    }
+
+    /**
+     * Discovers the agents of a target entity, and renders them as the child element of a response.
+     *
+     * Concurrent requests for the same target by requesters of the same visibility class share one discovery: only the
+     * first of these requests starts one, the others wait for its result. Complete results are cached.
+     *
+     * The first request is given the element that was rendered for it. Others are given a copy of a shared template,
+     * which is also what is cached. That way, each reply costs at most one copy.
+     *
+     * @param cacheKey The key that identifies the target and the visibility class of the requester.
+     * @param target The entity for which to discover agents.
+     * @param requester The entity on behalf of which agents are discovered.
+     * @return A future 'query' element that contains the XML representation of each agent, owned by the caller.
+     */
+    protected CompletableFuture<Element> discover(final DiscoCacheKey cacheKey, final JID target, final JID requester)
+    {
+        final CompletableFuture<Element> candidate = new CompletableFuture<>();
+        final CompletableFuture<Element> existing = inFlight.putIfAbsent(cacheKey, candidate);
+        if (existing != null) {
+            Log.trace("Joining discovery of agents of {} that is in progress, for {}", target, requester);
+            return existing.thenApply(Element::createCopy);
+        }
+
+        final CompletableFuture<Element> own = new CompletableFuture<>();
+        final long generation = cacheGeneration.get();
+
+        try {
+            final CompletableFuture<Void> expired = new CompletableFuture<>();
+            final CompletableFuture<AgentDiscoveryResult> result = findAgentsAsync(target, requester, expired);
+            scheduleDeadline(expired, result);
+            result.whenComplete((discovery, throwable) -> {
+                Element payload = null;
+                Element template = null;
+                Throwable failure = throwable;
+                if (failure == null) {
+                    try {
+                        payload = createPayload(discovery.getAgents());
+                        template = payload.createCopy();
+                        if (discovery.isComplete()) {
+                            responseCache.put(cacheKey, template);
+                            if (isInvalidatedSince(generation)) {
+                                responseCache.remove(cacheKey);
+                            }
+                        } else {
+                            Log.debug("Not caching the agents of {} for {}, as not all information could be obtained.", target, requester);
+                        }
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+
+                // Stop sharing this discovery (after caching its result): later requests use the cache, or start a new one.
+                inFlight.remove(cacheKey, candidate);
+                if (failure != null) {
+                    candidate.completeExceptionally(failure);
+                    own.completeExceptionally(failure);
+                } else {
+                    candidate.complete(template);
+                    own.complete(payload);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(cacheKey, candidate);
+            candidate.completeExceptionally(e);
+            own.completeExceptionally(e);
+        }
+        return own;
+    }
+
+    /**
+     * Completes a reply to a request for agents, by either adding the agents that were found, or an error.
+     *
+     * @param reply The IQ result to complete.
+     * @param payload The rendered agents that were found, owned by the reply (null when finding agents failed).
+     * @param failure The cause of finding agents to fail (null when finding agents succeeded).
+     */
+    protected void completeReply(final IQ reply, final Element payload, final Throwable failure)
+    {
+        if (failure != null || payload == null) {
+            Log.warn("An unexpected exception occurred while finding agents of {} for {}", reply.getFrom(), reply.getTo(), failure);
+            reply.setError(PacketError.Condition.internal_server_error);
+            return;
+        }
+
+        reply.setChildElement(payload);
+    }
+
+    /**
+     * Creates the child element of a response to a request for agents.
+     *
+     * @param agents The agents to include in the response.
+     * @return A 'query' element that contains the XML representation of each agent.
+     */
+    public static Element createPayload(final Set<AgentInformation> agents)
+    {
+        final Element result = DocumentHelper.createElement(QName.get("query", AgentInformation.NAMESPACE));
+        for (final AgentInformation agent : agents) {
+            result.add(agent.asElement());
+        }
+        return result;
+    }
+
     @Override
     public IQHandlerInfo getInfo()
     {
         return info;
     }
 
-    @Override
-    public Iterator<String> getFeatures()
+    @Override
+    public Iterator<String> getFeatures()
+    {
+        return Collections.singleton(AgentInformation.NAMESPACE).iterator();
+    }
+
+    /**
+     * Removes cached disco#items entries of an entity, as well as cached responses for agents of that entity, for all
+     * visibility classes.
+     *
+     * @param target The entity of which the items have changed.
+     */
+    public void invalidateItems(final JID target)
+    {
+        Log.debug("Invalidating cached disco#items of {}", target);
+        cacheGeneration.incrementAndGet();
+        removeAll(itemsCache, target);
+
+        // Later requests should not join a discovery that started before the invalidation.
+        inFlight.keySet().removeIf(key -> key.getAddress().equals(target));
+        responseCache.removeIf((key, value) -> key.getAddress().equals(target));
+    }
+
+    /**
+     * Removes cached disco#info information of an entity, as well as cached responses that include that entity as an
+     * agent, for all visibility classes.
+     *
+     * @param target The entity of which the information has changed.
+     */
+    public void invalidateInfo(final JID target)
+    {
+        Log.debug("Invalidating cached disco#info of {}", target);
+        cacheGeneration.incrementAndGet();
+        removeAll(infoCache, target);
+        inFlightInfo.keySet().removeIf(key -> key.getAddress().equals(target));
+
+        // Remove all responses that include an agent that is based on this information.
+        final String jid = target.toString();
+        responseCache.removeIf((key, payload) -> {
+            for (final Element agentElement : payload.elements("agent")) {
+                if (jid.equals(agentElement.attributeValue("jid"))) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public void componentRegistered(final JID componentJID)
+    {
+        invalidateComponent(componentJID);
+    }
+
+    @Override
+    public void componentUnregistered(final JID componentJID)
+    {
+        invalidateComponent(componentJID);
+    }
+
+    @Override
+    public void componentInfoReceived(final IQ iq)
+    {
+        if (iq.getFrom() != null) {
+            invalidateInfo(iq.getFrom());
+        }
+    }
+
+    /**
+     * Removes all cached information that is affected by a component that is added to, or removed from, the server.
+     *
+     * @param componentJID The address of the component.
+     */
+    protected void invalidateComponent(final JID componentJID)
+    {
+        Log.debug("Component {} was registered or unregistered.", componentJID);
+        cacheGeneration.incrementAndGet();
+
+        // The component is (or was) an item of the domain that it is a subdomain of.
+        final JID domain = new JID(XMPPServer.getInstance().getServerInfo().getXMPPDomain());
+        invalidateItems(domain);
+        invalidateItems(componentJID);
+        invalidateInfo(componentJID);
+
+        // A (re)connected component deserves a fresh start.
+        routesGeneration.incrementAndGet();
+        routes.remove(componentJID.getDomain());
+        circuitBreakers.remove(componentJID.getDomain());
+        lastKnownInfo.keySet().removeIf(key -> key.getAddress().equals(componentJID));
+    }
+
+    /**
+     * Removes all cached Service Discovery information.
+     */
+    public void invalidateAll()
+    {
+        Log.debug("Invalidating all cached Service Discovery information.");
+        cacheGeneration.incrementAndGet();
+        if (itemsCache != null) {
+            itemsCache.clear();
+        }
+        if (infoCache != null) {
+            infoCache.clear();
+        }
+        responseCache.clear();
+        lastKnownInfo.clear();
+        inFlight.clear();
+        inFlightInfo.clear();
+        canonicalAgents.clear();
+        routesGeneration.incrementAndGet();
+        routes.clear();
+    }
+
+    /**
+     * Checks if cached Service Discovery information was invalidated after a generation was obtained.
+     *
+     * Information that is obtained while an invalidation takes place can predate that invalidation. Such information is
+     * stored first and checked afterwards, so that it is either removed by the invalidation, or by the code that stored
+     * it. Invalidations are rare, so not distinguishing between the entities that they apply to is acceptable.
+     *
+     * @param generation The value of the generation counter before the information was requested.
+     * @return true if the information might be stale, otherwise false.
+     */
+    private boolean isInvalidatedSince(final long generation)
+    {
+        return cacheGeneration.get() != generation;
+    }
+
+    /**
+     * Finds XEP-0094-defined 'agents' of a target entity, by performing XEP-0030-based Service Discovery requests on
+     * behalf of the requester on the target entity. The requester address is provided to allow the Service Discovery
+     * service to authorize the request, where applicable.
+     *
+     * @param target The entity for which to return agent information
+     * @param requester The entity that requests agent information of an entity.
+     * @return A collection of Agent Information entities.
+     */
+    public Set<AgentInformation> findAgents(final JID target, final JID requester)
+    {
+        try {
+            return findAgentsAsync(target, requester).get();
+        } catch (InterruptedException e) {
+            Log.debug("Interrupted while finding agents of {} for {}.", target, requester);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.warn("An unexpected exception occurred while finding agents of {} for {}", target, requester, e.getCause());
+        }
+        return Collections.emptySet();
+    }
+
+    /**
+     * Finds XEP-0094-defined 'agents' of a target entity, without blocking the calling thread.
+     *
+     * @param target The entity for which to return agent information
+     * @param requester The entity that requests agent information of an entity.
+     * @return A future that holds a collection of Agent Information entities.
+     * @see #findAgents(JID, JID)
+     */
+    public CompletableFuture<Set<AgentInformation>> findAgentsAsync(final JID target, final JID requester)
+    {
+        final CompletableFuture<Void> expired = new CompletableFuture<>();
+        final CompletableFuture<AgentDiscoveryResult> result = findAgentsAsync(target, requester, expired);
+        scheduleDeadline(expired, result);
+        return result.thenApply(AgentDiscoveryResult::getAgents);
+    }
+
+    /**
+     * Completes a future when the deadline for finding agents expires, unless the agents have been found before that.
+     *
+     * @param expired The future to complete when the deadline expires.
+     * @param result The future that holds the agents that are found.
+     */
+    protected void scheduleDeadline(final CompletableFuture<Void> expired, final CompletableFuture<?> result)
     {
-        return Collections.singleton(AgentInformation.NAMESPACE).iterator();
+        final long deadline = JiveGlobals.getLongProperty(PROPERTY_DEADLINE, 10000);
+        if (deadline <= 0 || result.isDone()) {
+            return;
+        }
+        // Completing the future runs all of its dependent stages. Do that on another thread than the timer's.
+        final ScheduledFuture<?> expiry = timer.schedule(() -> probeExecutor.execute(() -> expired.complete(null)), deadline, TimeUnit.MILLISECONDS);
+        result.whenComplete((agents, throwable) -> expiry.cancel(false));
     }
 
     /**
-     * Finds XEP-0094-defined 'agents' of a target entity, by performing XEP-0030-based Service Discovery requests on
-     * behalf of the requester on the target entity. The requester address is provided to allow the Service Discovery
-     * service to authorize the request, where applicable.
+     * Finds XEP-0094-defined 'agents' of a target entity, without blocking the calling thread. When the provided
+     * future is completed, outstanding requests are no longer waited for: the agents that were found so far are
+     * returned. Answers that arrive later are still cached.
      *
      * @param target The entity for which to return agent information
      * @param requester The entity that requests agent information of an entity.
-     * @return A collection of Agent Information entities.
+     * @param expired A future that is completed when the deadline for finding agents expires.
+     * @return A future that holds the Agent Information entities, and whether these are complete.
      */
-    public Set<AgentInformation> findAgents(final JID target, final JID requester)
+    protected CompletableFuture<AgentDiscoveryResult> findAgentsAsync(final JID target, final JID requester, final CompletableFuture<Void> expired)
     {
         Log.trace("Find agents of {} for {}", target, requester);
-        final Set<AgentInformation> results = new HashSet<>();
 
         // Use Service Discovery to identify all items that are potential agents.
-        final Collection<Element> itemElements = getDiscoItems(target, requester);
+        final CompletableFuture<List<DiscoItem>> itemsResult = queryDiscoItemsAsync(target, requester, expired)
+            .applyToEither(expired.thenApply(ignored -> (List<DiscoItem>) null), Function.identity());
 
-        for (final Element itemElement : itemElements) {
-            final String jidValue = itemElement.attributeValue("jid");
-            final JID jid;
-            try {
-                jid = new JID(jidValue);
-            } catch (IllegalArgumentException e) {
-                Log.debug("Silently ignoring a service discovery item of entity '{}' that has an invalid JID value: {}", target, jidValue);
-                continue;
+        return itemsResult.thenCompose(items -> {
+            if (items == null) {
+                return CompletableFuture.completedFuture(new AgentDiscoveryResult(Collections.emptySet(), false));
             }
-            final String name = itemElement.attributeValue("name");
-
-            // For each potential agent, use Service Discovery to identify features that would qualify the candidate as an actual agent.
-            final Element infoElement = getDiscoInfo(jid, requester);
-
-            final String description = getDescription(infoElement);
-            final boolean isTransport = isCategory(infoElement, "gateway");
-            final boolean isGroupchat = isCategory(infoElement, "conference");
-            final String service;
-            if (isTransport) {
-                service = getGatewayType(infoElement);
-            } else if (isUserDirectory(infoElement)) {
-                service = "jud";
-            } else {
-                // The XEP defines that this value holds 'private' or 'public' for a conference service. Modern conference services do not have such an attribute.
-                service = null;
+
+            // An entity can be listed more than once. Probe each entity only once.
+            final Map<JID, DiscoItem> uniqueItems = new LinkedHashMap<>();
+            for (final DiscoItem item : items) {
+                uniqueItems.putIfAbsent(item.getJid(), item);
             }
-            final boolean supportsRegister = supportsFeature(infoElement, "jabber:iq:register");
-            final boolean supportsSearch = supportsFeature(infoElement, "jabber:iq:search");
 
-            final AgentInformation agent = new AgentInformation(jid, name, description, isTransport, isGroupchat, service, supportsRegister, supportsSearch);
-            results.add(agent);
+            // For each potential agent, use Service Discovery to identify features that would qualify the candidate as an actual agent. These requests are performed concurrently.
+            // A probe yields an empty Optional when no information was obtained, or null when it failed or did not complete in time.
+            final Map<DiscoItem, CompletableFuture<Optional<DiscoInfoDescriptor>>> probes = new LinkedHashMap<>();
+            for (final DiscoItem item : uniqueItems.values()) {
+                probes.put(item, getDiscoInfoAsync(item.getJid(), requester, expired)
+                    .thenApply(Optional::ofNullable)
+                    .exceptionally(throwable -> {
+                        Log.warn("An unexpected exception occurred while probing an item of {} for {}", target, requester, throwable);
+                        return null;
+                    })
+                    .applyToEither(expired.thenApply(ignored -> (Optional<DiscoInfoDescriptor>) null), Function.identity()));
+            }
+
+            return CompletableFuture.allOf(probes.values().toArray(new CompletableFuture[0])).thenApply(ignored -> {
+                if (expired.isDone()) {
+                    Log.debug("Deadline expired while finding agents of {} for {}. Returning the agents that were found so far.", target, requester);
+                }
+                boolean complete = true;
+                final Set<AgentInformation> results = new HashSet<>();
+                for (final Map.Entry<DiscoItem, CompletableFuture<Optional<DiscoInfoDescriptor>>> probe : probes.entrySet()) {
+                    final Optional<DiscoInfoDescriptor> info = probe.getValue().join();
+                    if (info == null) {
+                        complete = false;
+                        continue;
+                    }
+                    if (!info.isPresent()) {
+                        complete = false;
+                    }
+                    final DiscoItem item = probe.getKey();
+                    results.add(canonicalize(createAgent(item.getJid(), item.getName(), info.orElse(null))));
+                }
+                return new AgentDiscoveryResult(results, complete);
+            });
+        });
+    }
+
+    /**
+     * Returns the canonical instance that is equal to the provided agent. The canonical instance retains its rendered
+     * XML representation, which allows that representation to be reused between requests.
+     *
+     * @param agent The agent for which to return the canonical instance.
+     * @return An agent that is equal to the provided agent.
+     */
+    protected AgentInformation canonicalize(final AgentInformation agent)
+    {
+        if (canonicalAgents.size() >= MAX_CANONICAL_AGENTS) {
+            // Agents that no longer exist would otherwise be retained indefinitely.
+            canonicalAgents.clear();
         }
-        return results;
+        final AgentInformation existing = canonicalAgents.putIfAbsent(agent, agent);
+        return existing != null ? existing : agent;
+    }
+
+    /**
+     * Creates an agent based on the disco#info information of an entity.
+     *
+     * @param jid The address of the entity.
+     * @param name The name of the entity (can be null).
+     * @param info The disco#info information that describes the entity (can be null).
+     * @return An agent.
+     */
+    public static AgentInformation createAgent(final JID jid, final String name, final DiscoInfoDescriptor info)
+    {
+        final DiscoInfoDescriptor descriptor = info == null ? DiscoInfoDescriptor.EMPTY : info;
+        return new AgentInformation(jid, name, descriptor.getDescription(), descriptor.isTransport(), descriptor.isGroupchat(), descriptor.getService(), descriptor.supportsRegister(), descriptor.supportsSearch());
+    }
+
+    /**
+     * Obtains the disco#items entries of an entity, on behalf of the requester. Results can be obtained from a cache.
+     *
+     * @param target The entity for which to obtain items.
+     * @param requester The entity on behalf of which the items are obtained.
+     * @return An unmodifiable list of items (possibly empty).
+     */
+    public List<DiscoItem> getDiscoItems(final JID target, final JID requester)
+    {
+        return getDiscoItemsAsync(target, requester).join();
+    }
+
+    public CompletableFuture<List<DiscoItem>> getDiscoItemsAsync(final JID target, final JID requester)
+    {
+        return queryDiscoItemsAsync(target, requester, new CompletableFuture<>()).thenApply(items -> items == null ? Collections.<DiscoItem>emptyList() : items);
     }
 
-    public Collection<Element> getDiscoItems(final JID target, final JID requester)
+    /**
+     * Obtains the disco#items entries of an entity, on behalf of the requester. Results can be obtained from a cache.
+     *
+     * @param target The entity for which to obtain items.
+     * @param requester The entity on behalf of which the items are obtained.
+     * @param abandoned A future that is completed when the items are no longer needed. A request that has not been sent by then is dropped.
+     * @return A future unmodifiable list of items (possibly empty), which is null when no items could be obtained.
+     */
+    protected CompletableFuture<List<DiscoItem>> queryDiscoItemsAsync(final JID target, final JID requester, final CompletableFuture<?> abandoned)
     {
+        final DiscoCacheKey cacheKey = new DiscoCacheKey(target, VisibilityClass.of(requester));
+        final List<DiscoItem> cached = itemsCache == null ? null : itemsCache.get(cacheKey);
+        if (cached != null) {
+            Log.trace("Using cached disco#items of {} for {}", target, requester);
+            return CompletableFuture.completedFuture(cached);
+        }
+
         Log.trace("Perform disco#items request on {} on behalf of {}", target, requester);
 
         final IQ itemsRequest = new IQ(IQ.Type.get);
@@ -152,32 +923,163 @@ public class IQAgentInformationHandler extends IQHandler implements ServerFeatur
         itemsRequest.setFrom(requester);
         itemsRequest.setChildElement("query", IQDiscoItemsHandler.NAMESPACE_DISCO_ITEMS);
 
-        final IQ itemsResponse;
-        if (XMPPServer.getInstance().getServerInfo().getXMPPDomain().equals(target.toString()) || sessionManager.getComponentSession(target.getDomain()) == null) {
-            itemsResponse = XMPPServer.getInstance().getIQDiscoItemsHandler().handleIQ(itemsRequest);
+        final long generation = cacheGeneration.get();
+        final CompletableFuture<IQ> itemsResponse;
+        if (isHandledLocally(target)) {
+            itemsResponse = CompletableFuture.supplyAsync(() -> XMPPServer.getInstance().getIQDiscoItemsHandler().handleIQ(itemsRequest), probeExecutor);
         } else {
-            itemsResponse = queryExternal(itemsRequest);
+            itemsResponse = queryExternalGuarded(itemsRequest, abandoned);
         }
 
+        return itemsResponse.thenApply(response -> {
+            final List<DiscoItem> result;
+            if (response != null && response.getError() != null) {
+                // An error is a final answer of the entity (eg: item-not-found), not a failure to obtain one.
+                Log.debug("disco#items request was responded to with an error: {}", response.getError().toXML());
+                result = Collections.emptyList();
+            } else {
+                result = parseDiscoItems(target, response);
+            }
+            if (result == null) {
+                // Failed requests are not cached.
+                return null;
+            }
+            if (itemsCache != null) {
+                itemsCache.put(cacheKey, result);
+                if (isInvalidatedSince(generation)) {
+                    itemsCache.remove(cacheKey);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Parses the items from a disco#items response.
+     *
+     * @param target The entity that was queried.
+     * @param itemsResponse The response to parse (can be null).
+     * @return An unmodifiable list of items, or null when the response does not represent a successful result.
+     */
+    protected static List<DiscoItem> parseDiscoItems(final JID target, final IQ itemsResponse)
+    {
         if (itemsResponse == null) {
-            Log.debug("disco#info request was not responded to by: {}", target);
-            return Collections.emptySet();
+            Log.debug("disco#items request was not responded to by: {}", target);
+            return null;
         }
 
         if (itemsResponse.getError() != null) {
             Log.debug("disco#items request was responded to with an error: {}", itemsResponse.getError().toXML());
-            return Collections.emptySet();
+            return null;
         }
         final Element childElement = itemsResponse.getChildElement();
         if (childElement == null || !"query".equals(childElement.getName()) || !IQDiscoItemsHandler.NAMESPACE_DISCO_ITEMS.equals(childElement.getNamespaceURI())) {
             Log.debug("disco#items request was responded to using an unexpected or missing child element: {}", childElement == null ? "(null)" : childElement.asXML());
-            return Collections.emptySet();
+            return null;
+        }
+
+        final List<DiscoItem> result = new ArrayList<>();
+        for (final Element itemElement : childElement.elements("item")) {
+            try {
+                result.add(DiscoItem.from(itemElement));
+            } catch (IllegalArgumentException e) {
+                Log.debug("Silently ignoring a service discovery item of entity '{}' that has an invalid JID value: {}", target, itemElement.attributeValue("jid"));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Obtains the disco#info information of an entity, on behalf of the requester. Results can be obtained from a
+     * cache.
+     *
+     * @param target The entity for which to obtain information.
+     * @param requester The entity on behalf of which the information is obtained.
+     * @return A descriptor of the disco#info information, or null if no information could be obtained.
+     */
+    public DiscoInfoDescriptor getDiscoInfo(final JID target, final JID requester)
+    {
+        return getDiscoInfoAsync(target, requester).join();
+    }
+
+    public CompletableFuture<DiscoInfoDescriptor> getDiscoInfoAsync(final JID target, final JID requester)
+    {
+        return getDiscoInfoAsync(target, requester, new CompletableFuture<>());
+    }
+
+    /**
+     * Obtains the disco#info information of an entity, on behalf of the requester. Results can be obtained from a
+     * cache.
+     *
+     * @param target The entity for which to obtain information.
+     * @param requester The entity on behalf of which the information is obtained.
+     * @param abandoned A future that is completed when the information is no longer needed. A request that has not been sent by then is dropped, unless it is shared with others that still need it.
+     * @return A future descriptor of the disco#info information, which is null if no information could be obtained.
+     */
+    protected CompletableFuture<DiscoInfoDescriptor> getDiscoInfoAsync(final JID target, final JID requester, final CompletableFuture<?> abandoned)
+    {
+        final DiscoCacheKey cacheKey = new DiscoCacheKey(target, VisibilityClass.of(requester));
+        final DiscoInfoDescriptor cached = infoCache == null ? null : infoCache.get(cacheKey);
+        if (cached != null) {
+            Log.trace("Using cached disco#info of {} for {}", target, requester);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        final boolean isLocal = isHandledLocally(target);
+        if (isLocal) {
+            // For services that are hosted by this server, obtain information directly from their provider, if possible.
+            final DiscoInfoDescriptor descriptor = getLocalDiscoInfo(target, requester);
+            if (descriptor != null) {
+                if (infoCache != null) {
+                    infoCache.put(cacheKey, descriptor);
+                }
+                return CompletableFuture.completedFuture(descriptor);
+            }
+        }
+
+        // Concurrent requests for the same information share one disco#info request.
+        final SharedInfoRequest candidate = new SharedInfoRequest();
+        candidate.join(abandoned);
+        while (true) {
+            final SharedInfoRequest existing = inFlightInfo.putIfAbsent(cacheKey, candidate);
+            if (existing == null) {
+                break;
+            }
+            if (existing.join(abandoned)) {
+                Log.trace("Joining disco#info request on {} that is in progress, for {}", target, requester);
+                return existing.result;
+            }
+            // Everyone that shared that request abandoned it, so it might not be sent at all. Replace it.
+            inFlightInfo.remove(cacheKey, existing);
         }
 
-        return childElement.elements("item");
+        try {
+            queryDiscoInfo(cacheKey, target, requester, isLocal, candidate.abandoned).whenComplete((descriptor, throwable) -> {
+                inFlightInfo.remove(cacheKey, candidate);
+                if (throwable != null) {
+                    candidate.result.completeExceptionally(throwable);
+                } else {
+                    candidate.result.complete(descriptor);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlightInfo.remove(cacheKey, candidate);
+            candidate.result.completeExceptionally(e);
+        }
+        return candidate.result;
     }
 
-    public Element getDiscoInfo(final JID target, final JID requester)
+    /**
+     * Performs a disco#info request on an entity, on behalf of the requester, and caches the result.
+     *
+     * @param cacheKey The key under which to cache the result.
+     * @param target The entity for which to obtain information.
+     * @param requester The entity on behalf of which the information is obtained.
+     * @param isLocal true if the entity is handled by this server, false if it is an external component.
+     * @param abandoned A future that is completed when the information is no longer needed.
+     * @return A future descriptor of the disco#info information, which is null if no information could be obtained.
+     */
+    private CompletableFuture<DiscoInfoDescriptor> queryDiscoInfo(final DiscoCacheKey cacheKey, final JID target, final JID requester, final boolean isLocal, final CompletableFuture<?> abandoned)
     {
         Log.trace("Perform disco#info request on {} on behalf of {}", target, requester);
 
@@ -187,13 +1089,110 @@ public class IQAgentInformationHandler extends IQHandler implements ServerFeatur
         infoRequest.setChildElement("query", IQDiscoInfoHandler.NAMESPACE_DISCO_INFO);
 
         // Obtain an IQ response. For internal components, we can short-cut through the local handler. For external components, perform an actual XMPP query.
-        final IQ infoResponse;
-        if (XMPPServer.getInstance().getServerInfo().getXMPPDomain().equals(target.toString()) || sessionManager.getComponentSession(target.getDomain()) == null) {
-            infoResponse = XMPPServer.getInstance().getIQDiscoItemsHandler().handleIQ(infoRequest);
+        final long generation = cacheGeneration.get();
+        final CompletableFuture<IQ> infoResponse;
+        if (isLocal) {
+            infoResponse = CompletableFuture.supplyAsync(() -> XMPPServer.getInstance().getIQDiscoInfoHandler().handleIQ(infoRequest), probeExecutor);
         } else {
-            infoResponse = queryExternal(infoRequest);
+            infoResponse = queryExternalGuarded(infoRequest, abandoned);
+        }
+
+        return infoResponse.thenApply(response -> {
+            if (response == null && !isLocal) {
+                final DiscoInfoDescriptor lastKnown = lastKnownInfo.get(cacheKey);
+                if (lastKnown != null) {
+                    Log.debug("disco#info request was not responded to by: {}. Using the information that was last received instead.", target);
+                    return lastKnown;
+                }
+            }
+
+            final DiscoInfoDescriptor descriptor;
+            if (response != null && response.getError() != null) {
+                // An error is a final answer of the entity (eg: item-not-found), not a failure to obtain one.
+                Log.debug("disco#info request was responded to with an error: {}", response.getError().toXML());
+                descriptor = DiscoInfoDescriptor.EMPTY;
+            } else {
+                final Element result = parseDiscoInfo(target, response);
+                descriptor = result == null ? null : DiscoInfoDescriptor.parse(result);
+            }
+            if (descriptor != null) {
+                // Cache a compact descriptor, to not retain the entire response. Failed requests are not cached.
+                if (infoCache != null) {
+                    infoCache.put(cacheKey, descriptor);
+                }
+                if (!isLocal) {
+                    lastKnownInfo.put(cacheKey, descriptor);
+                }
+                if (isInvalidatedSince(generation)) {
+                    if (infoCache != null) {
+                        infoCache.remove(cacheKey);
+                    }
+                    lastKnownInfo.remove(cacheKey, descriptor);
+                }
+                return descriptor;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Obtains disco#info information of a service that is hosted by this server directly from the Service Discovery
+     * information provider of that service, without constructing and processing an IQ request.
+     *
+     * @param target The entity for which to obtain information.
+     * @param requester The entity on behalf of which the information is obtained.
+     * @return A descriptor, or null if no provider of information for the entity can be used.
+     */
+    protected DiscoInfoDescriptor getLocalDiscoInfo(final JID target, final JID requester)
+    {
+        final DiscoInfoProvider provider = findLocalInfoProvider(target);
+        if (provider == null) {
+            return null;
+        }
+
+        try {
+            final String name = target.getNode();
+            if (!provider.hasInfo(name, null, requester)) {
+                return null;
+            }
+            Log.trace("Obtaining disco#info of {} on behalf of {} directly from its provider", target, requester);
+            return DiscoInfoDescriptor.from(provider.getIdentities(name, null, requester), provider.getFeatures(name, null, requester));
+        } catch (RuntimeException e) {
+            Log.debug("Unable to obtain disco#info of {} directly from its provider. Falling back to a disco#info request.", target, e);
+            return null;
+        }
+    }
+
+    /**
+     * Finds the Service Discovery information provider of a service that is hosted by this server. Providers are known
+     * for multi-user chat services and the publish-subscribe service. Information on other entities is obtained through
+     * a disco#info request.
+     *
+     * @param target The entity for which to find a provider.
+     * @return A provider, or null if none is known.
+     */
+    protected DiscoInfoProvider findLocalInfoProvider(final JID target)
+    {
+        if (target.getResource() != null) {
+            return null;
+        }
+
+        final XMPPServer server = XMPPServer.getInstance();
+        final MultiUserChatService mucService = server.getMultiUserChatManager().getMultiUserChatService(target);
+        if (mucService instanceof DiscoInfoProvider) {
+            return (DiscoInfoProvider) mucService;
+        }
+
+        final PubSubModule pubSubModule = server.getPubSubModule();
+        if (pubSubModule != null && target.getNode() == null && target.getDomain().equals(pubSubModule.getServiceDomain())) {
+            return pubSubModule;
         }
 
+        return null;
+    }
+
+    protected static Element parseDiscoInfo(final JID target, final IQ infoResponse)
+    {
         if (infoResponse == null) {
             Log.debug("disco#info request was not responded to by: {}", target);
             return null;
@@ -213,285 +1212,256 @@ public class IQAgentInformationHandler extends IQHandler implements ServerFeatur
     }
 
     /**
-     * Sends an IQ request and blocks for the response to be returned, or a timeout occurs.
+     * Checks if Service Discovery requests to the provided entity can be processed by the local handlers, or if these
+     * need to be sent to an external component.
      *
-     * @param request The IQ request
-     * @return the IQ response, or null.
+     * @param target The entity to which a request is addressed.
+     * @return true if the request can be processed locally, otherwise false.
      */
-    public static IQ queryExternal(final IQ request)
+    protected boolean isHandledLocally(final JID target)
     {
-        if (!request.isRequest()) {
-            throw new IllegalArgumentException("Argument 'request' must be an IQ request (but was not).");
+        return getRoute(target.getDomain()) != Route.EXTERNAL_COMPONENT;
+    }
+
+    /**
+     * Determines how an entity of a domain is reached. The result is cached until components are registered or
+     * unregistered.
+     *
+     * @param domain The domain of an entity.
+     * @return the route to the domain.
+     */
+    protected Route getRoute(final String domain)
+    {
+        final Route cached = routes.get(domain);
+        if (cached != null) {
+            return cached;
         }
-        Log.trace("Querying external entity: {}", request.getTo());
-        final LinkedBlockingQueue<IQ> answer = new LinkedBlockingQueue<>(8);
-        final IQRouter iqRouter = XMPPServer.getInstance().getIQRouter();
-        iqRouter.addIQResultListener(request.getID(), new IQResultListener() {
-            public void receivedAnswer(IQ packet) {
-                answer.offer(packet);
-            }
 
-            public void answerTimeout(String packetId) {
-                Log.warn("An answer to a previously sent IQ stanza was never received. Target: {}", request.getTo());
-            }
-        });
+        final long generation = routesGeneration.get();
+        final Route route;
+        final XMPPServer server = XMPPServer.getInstance();
+        if (server.getSessionManager().getComponentSession(domain) != null) {
+            route = Route.EXTERNAL_COMPONENT;
+        } else if (server.getServerInfo().getXMPPDomain().equals(domain) || InternalComponentManager.getInstance().hasComponent(new JID(domain))) {
+            route = Route.LOCAL;
+        } else {
+            route = Route.REMOTE;
+        }
+        Log.trace("Domain {} is reached through route: {}", domain, route);
 
-        iqRouter.route(request);
+        if (routes.size() >= MAX_CACHED_ROUTES) {
+            routes.clear();
+        }
+        routes.put(domain, route);
+        if (routesGeneration.get() != generation) {
+            // Routes were invalidated while this one was determined. Don't let a stale route outlive the invalidation.
+            routes.remove(domain, route);
+        }
+        return route;
+    }
+
+    /**
+     * Sends an IQ request and blocks for the response to be returned, or a timeout occurs.
+     *
+     * @param request The IQ request
+     * @return the IQ response, or null.
+     * @see #queryExternalAsync(IQ)
+     */
+    public IQ queryExternal(final IQ request)
+    {
         try {
-            return answer.poll(5, TimeUnit.SECONDS);
+            // The future is completed with null when the timeout occurs.
+            return queryExternalAsync(request).get();
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.debug("No answer was received from {} to a request with ID {}", request.getTo(), request.getID(), e);
         }
         return null;
     }
 
-    public static boolean isCategory(final Element discoInfoElement, final String categoryName)
+    /**
+     * Sends an IQ request, without waiting for the response to be returned.
+     *
+     * The returned future is completed with the response when one is received. When no response is received in time,
+     * the future is completed with a null value.
+     *
+     * @param request The IQ request
+     * @return A future that holds the IQ response, or null.
+     */
+    public CompletableFuture<IQ> queryExternalAsync(final IQ request)
     {
-        if (discoInfoElement == null) {
-            return false;
-        }
-
-        boolean result = false;
-        for (final Element identityElement : discoInfoElement.elements("identity")) {
-            if (categoryName.equals(identityElement.attributeValue("category"))) {
-                result = true;
-                break;
-            }
+        if (!request.isRequest()) {
+            throw new IllegalArgumentException("Argument 'request' must be an IQ request (but was not).");
         }
-        Log.trace("Disco#info {} define an identify of category {}", result ? "does" : "doesn't", categoryName);
-        return result;
+        Log.trace("Querying external entity: {}", request.getTo());
+        return correlator.send(request, getExternalQueryTimeout());
     }
 
-    public static boolean supportsFeature(final Element discoInfoElement, final String featureName)
+    /**
+     * Sends an IQ request to an external component, unless that component has repeatedly failed to respond to earlier
+     * requests. The amount of requests that are outstanding concurrently per component is limited: excess requests are
+     * queued, or not sent at all when the queue is full. A queued request is dropped when it is abandoned.
+     *
+     * @param request The IQ request
+     * @param abandoned A future that is completed when the response is no longer needed.
+     * @return A future that holds the IQ response, or null (also when the request was not sent).
+     * @see CircuitBreaker
+     * @see Bulkhead
+     */
+    protected CompletableFuture<IQ> queryExternalGuarded(final IQ request, final CompletableFuture<?> abandoned)
     {
-        if (discoInfoElement == null) {
-            return false;
+        final int concurrency = JiveGlobals.getIntProperty(PROPERTY_BULKHEAD_CONCURRENCY, 10);
+        if (concurrency <= 0) {
+            return queryExternalLimited(request, abandoned);
         }
 
-        boolean result = false;
-        for (final Element identityElement : discoInfoElement.elements("feature")) {
-            if (featureName.equals(identityElement.attributeValue("var"))) {
-                result = true;
-                break;
-            }
+        final String domain = request.getTo().getDomain();
+        final Bulkhead bulkhead = bulkheads.computeIfAbsent(domain, d -> new Bulkhead(concurrency, JiveGlobals.getIntProperty(PROPERTY_BULKHEAD_QUEUE, 50)));
+        try {
+            return bulkhead.submit(() -> queryExternalLimited(request, abandoned), abandoned);
+        } catch (RejectedExecutionException e) {
+            Log.debug("Not querying {}, as {} requests to its domain are outstanding, and {} are queued.", request.getTo(), bulkhead.getOutstanding(), bulkhead.getQueued());
+            return CompletableFuture.completedFuture(null);
         }
-        Log.trace("Disco#info {} define feature {}", result ? "does" : "doesn't", featureName);
-        return result;
     }
 
-
-    public static String getGatewayType(final Element discoInfoElement)
+    /**
+     * Sends a request to an external component, as soon as the amount of outstanding requests to all external
+     * components allows it.
+     *
+     * @param request The request to send.
+     * @param abandoned A future that is completed when the response is no longer needed.
+     * @return The future response, which is null if the request was not sent or not answered.
+     */
+    private CompletableFuture<IQ> queryExternalLimited(final IQ request, final CompletableFuture<?> abandoned)
     {
-        if (discoInfoElement == null) {
-            return null;
+        if (externalLimiter == null) {
+            return queryExternalCircuitGuarded(request);
         }
 
-        for (final Element identityElement : discoInfoElement.elements("identity")) {
-            if ("gateway".equals(identityElement.attributeValue("category"))) {
-                final String result = identityElement.attributeValue("type");
-                Log.trace("Disco#info defines a transport of type {}", result);
-                return result;
+        try {
+            return externalLimiter.submit(() -> queryExternalCircuitGuarded(request), abandoned);
+        } catch (RejectedExecutionException e) {
+            final long now = System.currentTimeMillis();
+            final long loggedAt = rejectionLoggedAt.get();
+            if (now - loggedAt >= REJECTION_LOG_INTERVAL && rejectionLoggedAt.compareAndSet(loggedAt, now)) {
+                Log.info("The maximum amount of outstanding requests to external components is reached. Requests are not sent ({} rejected so far).", externalLimiter.getRejected());
+            } else {
+                Log.debug("Not querying {}, as the maximum amount of outstanding requests to external components is reached ({} rejected so far).", request.getTo(), externalLimiter.getRejected());
             }
+            return CompletableFuture.completedFuture(null);
         }
+    }
 
-        Log.trace("Disco#info does not define a transport.");
-        return null;
+    /**
+     * Returns the amount of requests to external components that were not sent, as the maximum amount of outstanding
+     * requests to all external components combined was reached.
+     *
+     * @return an amount of requests.
+     */
+    public long getRejectedExternalQueryCount()
+    {
+        return externalLimiter == null ? 0 : externalLimiter.getRejected();
+    }
+
+    /**
+     * Returns the amount of requests to external components that are awaiting an answer.
+     *
+     * @return an amount of requests.
+     */
+    public int getOutstandingExternalQueryCount()
+    {
+        return correlator.getOutstanding();
     }
 
-    public static boolean isUserDirectory(final Element discoInfoElement)
+    /**
+     * Sends a request to an external component, unless that component has repeatedly failed to respond to earlier
+     * requests.
+     *
+     * @param request The request to send.
+     * @return The future response, which is null if the request was not sent or not answered.
+     */
+    private CompletableFuture<IQ> queryExternalCircuitGuarded(final IQ request)
     {
-        if (discoInfoElement == null) {
-            return false;
+        final CircuitBreaker circuitBreaker = circuitBreakers.computeIfAbsent(request.getTo().getDomain(), domain ->
+            new CircuitBreaker(JiveGlobals.getIntProperty(PROPERTY_CIRCUIT_FAILURE_THRESHOLD, 3), JiveGlobals.getLongProperty(PROPERTY_CIRCUIT_COOLDOWN, TimeUnit.MINUTES.toMillis(1))));
+
+        if (!circuitBreaker.allowRequest()) {
+            Log.debug("Not querying {}, as it has repeatedly failed to respond to earlier requests.", request.getTo());
+            return CompletableFuture.completedFuture(null);
         }
 
-        boolean result = false;
-        for (final Element identityElement : discoInfoElement.elements("identity")) {
-            if ("directory".equals(identityElement.attributeValue("category"))) {
-                if ("user".equals(identityElement.attributeValue("type"))) {
-                    result = true;
-                    break;
-                }
-            }
+        final CompletableFuture<IQ> answer;
+        try {
+            answer = queryExternalAsync(request);
+        } catch (RuntimeException e) {
+            // The outcome of every allowed request must be recorded, or the circuit breaker can remain half-open.
+            Log.warn("Unable to send a request to {}", request.getTo(), e);
+            circuitBreaker.recordFailure();
+            return CompletableFuture.completedFuture(null);
         }
 
-        Log.trace("Disco#info {} define a user directory", result ? "does" : "doesn't");
-        return result;
+        return answer.whenComplete((response, throwable) -> {
+            if (response != null) {
+                circuitBreaker.recordSuccess();
+            } else {
+                circuitBreaker.recordFailure();
+                if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+                    Log.info("External component {} is unresponsive. It will not be queried for a while.", request.getTo().getDomain());
+                }
+            }
+        });
     }
 
     /**
-     * Returns the first human-readable description of a disco#info identity, as defined in the official registry of
-     * values for the 'category' and 'type' attributes of the <identity/> element within the
-     * 'http://jabber.org/protocol/disco#info' namespace (see XEP-0030: Service Discovery), as registered with the XMPP
-     * Registrar.
+     * Returns the maximum amount of milliseconds to wait for an answer to a request sent to an external entity.
      *
-     * Updated until revision 2021-10-06 of the Registry.
-     *
-     * @param discoInfoElement Element from which to take an identity
-     * @return A human readable description.
-     * @see <a href="https://xmpp.org/registrar/disco-categories.html">Official Registry</a>
+     * @return a timeout value in milliseconds.
      */
-    public static String getDescription(final Element discoInfoElement) {
-        if (discoInfoElement == null) {
-            return null;
-        }
+    static long getExternalQueryTimeout()
+    {
+        return JiveGlobals.getLongProperty(PROPERTY_EXTERNAL_TIMEOUT, 5000);
+    }
 
-        for (final Element identityElement : discoInfoElement.elements("identity")) {
-            final String category = identityElement.attributeValue("category");
-            final String type = identityElement.attributeValue("type");
-            if (category == null || type == null) {
-                continue;
-            }
+    /**
+     * A disco#info request that is shared by concurrent requests for the same information. The request is abandoned
+     * only when every request that shares it has been abandoned.
+     */
+    private static class SharedInfoRequest
+    {
+        final CompletableFuture<DiscoInfoDescriptor> result = new CompletableFuture<>();
+        final CompletableFuture<Void> abandoned = new CompletableFuture<>();
+        private int interested = 0;
+        private boolean isAbandoned = false;
 
-            switch (category) {
-                case "account":
-                    switch (type) {
-                        case "admin": return "The user@host is an administrative account";
-                        case "anonymous": return "The user@host is a \"guest\" account that allows anonymous login by any user";
-                        case "registered": return "The user@host is a registered or provisioned account associated with a particular non-administrative user";
-                        default: return null;
-                    }
-                case "auth":
-                    switch (type) {
-                        case "cert": return "A server component that authenticates based on external certificates";
-                        case "generic": return "A server authentication component other than one of the registered types";
-                        case "ldap": return "A server component that authenticates against an LDAP database";
-                        case "ntlm": return "A server component that authenticates against an NT domain";
-                        case "pam": return "A server component that authenticates against a PAM system";
-                        case "radius": return "A server component that authenticates against a Radius system";
-                        default: return null;
-                    }
-                case "authz":
-                    switch (type) {
-                        case "ephemeral": return "An authorization service that provides ephemeral identities.";
-                        default: return null;
-                    }
-                case "automation":
-                    switch (type) {
-                        case "command-list": return "The node for a list of commands; valid only for the node \"http://jabber.org/protocol/commands\"";
-                        case "command-node": return "A node for a specific command; the \"node\" attribute uniquely identifies the command";
-                        case "rpc": return "An entity that supports Jabber-RPC.";
-                        case "soap": return "An entity that supports the SOAP XMPP Binding.";
-                        case "translation": return "An entity that provides automated translation services.";
-                        default: return null;
-                    }
-                case "client":
-                    switch (type) {
-                        case "bot": return "An automated client that is not controlled by a human user";
-                        case "console": return "Minimal non-GUI client used on dumb terminals or text-only screens";
-                        case "game": return "A client running on a gaming console";
-                        case "handheld": return "A client running on a PDA, RIM device, or other handheld";
-                        case "pc": return "Standard full-GUI client used on desktops and laptops";
-                        case "phone": return "A client running on a mobile phone or other telephony device";
-                        case "sms": return "A client that is not actually using an instant messaging client; however, messages sent to this contact will be delivered as Short Message Service (SMS) messages";
-                        case "tablet": return "A client running on a touchscreen device larger than a smartphone and without a physical keyboard permanently attached to it.";
-                        case "web": return "A client operated from within a web browser";
-                        default: return null;
-                    }
-                case "collaboration":
-                    switch (type) {
-                        case "whiteboard": return "Multi-user whiteboarding service";
-                        default: return null;
-                    }
-                case "component":
-                    switch (type) {
-                        case "archive": return "A server component that archives traffic";
-                        case "c2s": return "A server component that handles client connections";
-                        case "generic": return "A server component other than one of the registered types";
-                        case "load": return "A server component that handles load balancing";
-                        case "log": return "A server component that logs server information";
-                        case "presence": return "A server component that provides presence information";
-                        case "router": return "A server component that handles core routing logic";
-                        case "s2s": return "A server component that handles server connections";
-                        case "sm": return "A server component that manages user sessions";
-                        case "stats": return "A server component that provides server statistics";
-                        default: return null;
-                    }
-                case "conference":
-                    switch (type) {
-                        case "irc": return "Internet Relay Chat service";
-                        case "text": return "Text conferencing service";
-                        default: return null;
-                    }
-                case "directory":
-                    switch (type) {
-                        case "chatroom": return "A directory of chatrooms";
-                        case "group": return "A directory that provides shared roster groups";
-                        case "user": return "A directory of end users (e.g., JUD)";
-                        case "waitinglist": return "A directory of waiting list entries";
-                        default: return null;
-                    }
-                case "gateway":
-                    switch (type) {
-                        case "aim": return "Gateway to AOL Instant Messenger";
-                        case "facebook": return "Gateway to the Facebook IM service";
-                        case "gadu-gadu": return "Gateway to the Gadu-Gadu IM service";
-                        case "http-ws": return "Gateway that provides HTTP Web Services access";
-                        case "icq": return "Gateway to ICQ";
-                        case "irc": return "Gateway to IRC";
-                        case "lcs": return "Gateway to Microsoft Live Communications Server";
-                        case "mrim": return "Gateway to the mail.ru IM service";
-                        case "msn": return "Gateway to MSN Messenger";
-                        case "myspaceim": return "Gateway to the MySpace IM service";
-                        case "ocs": return "Gateway to Microsoft Office Communications Server";
-                        case "pstn": return "Gateway to the Public Switched Telephone Network (PSTN)";
-                        case "qq": return "Gateway to the QQ IM service";
-                        case "sametime": return "Gateway to IBM Lotus Sametime";
-                        case "simple": return "Gateway to SIP for Instant Messaging and Presence Leveraging Extensions (SIMPLE)";
-                        case "skype": return "Gateway to the Skype service";
-                        case "sms": return "Gateway to Short Message Service";
-                        case "smtp": return "Gateway to the SMTP (email) network";
-                        case "telegram": return "Gateway to the Telegram IM service";
-                        case "tlen": return "Gateway to the Tlen IM service";
-                        case "xfire": return "Gateway to the Xfire gaming and IM service";
-                        case "xmpp": return "Gateway to another XMPP service (NOT via native server-to-server communication)";
-                        case "yahoo": return "Gateway to Yahoo! Instant Messenger";
-
-                        default: return null;
-                    }
-                case "headline":
-                    switch (type) {
-                        case "newmail": return "Service that notifies a user of new email messages.";
-                        case "rss": return "RSS notification service.";
-                        case "weather": return "Service that provides weather alerts.";
-                        default: return null;
-                    }
-                case "hierarchy":
-                    switch (type) {
-                        case "branch": return "A service discovery node that contains further nodes in the hierarchy.";
-                        case "leaf": return "A service discovery node that does not contain further nodes in the hierarchy.";
-                        default: return null;
-                    }
-                case "proxy":
-                    switch (type) {
-                        case "bytestreams": return "SOCKS5 bytestreams proxy service";
-                        default: return null;
-                    }
-                case "pubsub":
-                    switch (type) {
-                        case "collection": return "A pubsub node of the \"collection\" type.";
-                        case "leaf": return "A pubsub node of the \"leaf\" type.";
-                        case "pep": return "A personal eventing service that supports the publish-subscribe subset defined in XEP-0163.";
-                        case "service": return "A pubsub service that supports the functionality defined in XEP-0060.";
-                        default: return null;
-                    }
-                case "server":
-                    switch (type) {
-                        case "im": return "Standard Jabber/XMPP server used for instant messaging and presence";
-                        default: return null;
-                    }
-                case "store":
-                    switch (type) {
-                        case "berkeley": return "A server component that stores data in a Berkeley database";
-                        case "file": return "A server component that stores data on the file system";
-                        case "generic": return "A server data storage component other than one of the registered types";
-                        case "ldap": return "A server component that stores data in an LDAP database";
-                        case "mysql": return "A server component that stores data in a MySQL database";
-                        case "oracle": return "A server component that stores data in an Oracle database";
-                        case "postgres": return "A server component that stores data in a PostgreSQL database";
-                        default: return null;
-                    }
+        /**
+         * Registers a request that shares this one.
+         *
+         * @param abandonedByRequester A future that is completed when the registered request is abandoned.
+         * @return false if this request has already been abandoned, and can therefore not be shared.
+         */
+        boolean join(final CompletableFuture<?> abandonedByRequester)
+        {
+            synchronized (this) {
+                if (isAbandoned) {
+                    return false;
+                }
+                interested++;
             }
+            abandonedByRequester.thenRun(this::leave);
+            return true;
         }
 
-        return null;
+        private void leave()
+        {
+            synchronized (this) {
+                if (--interested > 0) {
+                    return;
+                }
+                isAbandoned = true;
+            }
+            abandoned.complete(null);
+        }
     }
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.jivesoftware.openfire.IQRouter;
+import org.jivesoftware.openfire.XMPPServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.component.IQResultListener;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Correlates IQ requests that are sent to external entities with their responses.
+ *
+ * Each outstanding request is represented by an entry in a table, keyed by stanza ID. All requests share one listener
+ * (this instance) for responses, and one timer wheel that enforces timeouts. Requests that time out are completed on a
+ * separate executor, to keep the thread that advances the timer wheel available for expiring other requests.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class IQCorrelator implements IQResultListener
+{
+    private static final Logger Log = LoggerFactory.getLogger(IQCorrelator.class);
+
+    /**
+     * The amount of milliseconds that the router retains the registration of a request after it timed out. The
+     * router's own timeout only serves to clean up requests that are never answered.
+     */
+    private static final long ROUTER_TIMEOUT_MARGIN = TimeUnit.MINUTES.toMillis(1);
+
+    private final ConcurrentMap<String, Pending> outstanding = new ConcurrentHashMap<>();
+    private final TimerWheel<Pending> timeouts = new TimerWheel<>(100, 512, this::expire);
+    private final ScheduledFuture<?> ticker;
+    private final Executor completionExecutor;
+
+    /**
+     * Creates a new correlator.
+     *
+     * @param scheduler The executor that advances the timer wheel.
+     * @param completionExecutor The executor that completes requests that time out.
+     */
+    public IQCorrelator(final ScheduledExecutorService scheduler, final Executor completionExecutor)
+    {
+        this.completionExecutor = completionExecutor;
+        this.ticker = scheduler.scheduleAtFixedRate(timeouts::tick, timeouts.getTickDuration(), timeouts.getTickDuration(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends an IQ request, without waiting for the response to be returned.
+     *
+     * The returned future is completed with the response when one is received. When no response is received in time,
+     * the future is completed with a null value.
+     *
+     * @param request The IQ request.
+     * @param timeout The amount of milliseconds to wait for a response.
+     * @return A future that holds the IQ response, or null.
+     */
+    public CompletableFuture<IQ> send(final IQ request, final long timeout)
+    {
+        final Pending pending = new Pending(request.getID(), request.getTo());
+        if (outstanding.putIfAbsent(pending.id, pending) != null) {
+            throw new IllegalArgumentException("A request with the same stanza ID is already outstanding: " + pending.id);
+        }
+        timeouts.schedule(pending, timeout);
+        dispatch(request, timeout + ROUTER_TIMEOUT_MARGIN);
+        return pending.answer;
+    }
+
+    /**
+     * Registers this instance to receive the answer to a request, and routes the request.
+     *
+     * @param request The IQ request.
+     * @param routerTimeout The amount of milliseconds after which the router discards the registration.
+     */
+    protected void dispatch(final IQ request, final long routerTimeout)
+    {
+        final IQRouter iqRouter = XMPPServer.getInstance().getIQRouter();
+        iqRouter.addIQResultListener(request.getID(), this, routerTimeout);
+        iqRouter.route(request);
+    }
+
+    @Override
+    public void receivedAnswer(final IQ packet)
+    {
+        final Pending pending = outstanding.remove(packet.getID());
+        if (pending == null) {
+            Log.debug("Silently ignoring an answer that was received after its request timed out. From: {}, ID: {}", packet.getFrom(), packet.getID());
+            return;
+        }
+        pending.answer.complete(packet);
+    }
+
+    @Override
+    public void answerTimeout(final String packetId)
+    {
+        // Normally, the request has already been expired by the timer wheel.
+        final Pending pending = outstanding.get(packetId);
+        if (pending != null) {
+            expire(pending);
+        }
+    }
+
+    /**
+     * Completes a request for which no answer was received in time.
+     *
+     * @param pending The request.
+     */
+    private void expire(final Pending pending)
+    {
+        // The request is only removed if it has not been answered (and its ID was not reused) in the meantime.
+        if (outstanding.remove(pending.id, pending)) {
+            Log.warn("An answer to a previously sent IQ stanza was never received. Target: {}", pending.target);
+            // Completing the request runs all of its dependent stages, which can be expensive.
+            try {
+                completionExecutor.execute(() -> pending.answer.complete(null));
+            } catch (RejectedExecutionException e) {
+                pending.answer.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of requests that are awaiting an answer.
+     *
+     * @return an amount of requests.
+     */
+    public int getOutstanding()
+    {
+        return outstanding.size();
+    }
+
+    /**
+     * Stops advancing the timer wheel, and completes all outstanding requests with a null value.
+     */
+    public void stop()
+    {
+        ticker.cancel(false);
+        for (final Pending pending : outstanding.values()) {
+            if (outstanding.remove(pending.id, pending)) {
+                pending.answer.complete(null);
+            }
+        }
+    }
+
+    private static class Pending
+    {
+        final String id;
+        final JID target;
+        final CompletableFuture<IQ> answer = new CompletableFuture<>();
+
+        Pending(final String id, final JID target)
+        {
+            this.id = id;
+            this.target = target;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Pending{id='" + id + "', target=" + target + '}';
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+/**
+ * The ways in which an entity can be reached from this server, for the purpose of performing Service Discovery.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public enum Route
+{
+    /**
+     * The entity is this server, or a component that is hosted by this server.
+     */
+    LOCAL,
+
+    /**
+     * The entity is an external component that is connected to this server.
+     */
+    EXTERNAL_COMPONENT,
+
+    /**
+     * The entity is not served by this server.
+     */
+    REMOTE
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timer wheel, which expires a large amount of items at low cost, at the expense of precision.
+ *
+ * Time is divided in ticks of fixed duration. Each item is placed in the bucket that corresponds to the tick at which
+ * it expires. On every tick, only the items of one bucket are inspected. Items are expired on the first tick at or
+ * after their expiry time.
+ *
+ * This class does not advance time by itself: {@link #tick()} is to be invoked periodically, at the tick duration that
+ * the wheel was created with.
+ *
+ * Instances are thread-safe.
+ *
+ * @param <T> Type of the items that expire.
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class TimerWheel<T>
+{
+    private static final Logger Log = LoggerFactory.getLogger(TimerWheel.class);
+
+    private final long tickDuration;
+    private final List<List<Entry<T>>> buckets;
+    private final Consumer<T> onExpiry;
+
+    private long currentTick = 0;
+
+    /**
+     * Creates a new, empty timer wheel.
+     *
+     * @param tickDuration The amount of milliseconds between ticks.
+     * @param size The amount of buckets of the wheel.
+     * @param onExpiry Invoked for each item that expires (on the thread that invokes {@link #tick()}).
+     */
+    public TimerWheel(final long tickDuration, final int size, final Consumer<T> onExpiry)
+    {
+        this.tickDuration = Math.max(1, tickDuration);
+        this.buckets = new ArrayList<>(Math.max(1, size));
+        for (int i = 0; i < Math.max(1, size); i++) {
+            this.buckets.add(new ArrayList<>());
+        }
+        this.onExpiry = onExpiry;
+    }
+
+    /**
+     * Schedules the expiry of an item.
+     *
+     * @param item The item that is to expire.
+     * @param delay The amount of milliseconds after which the item expires.
+     */
+    public synchronized void schedule(final T item, final long delay)
+    {
+        final long ticks = Math.max(1, (delay + tickDuration - 1) / tickDuration);
+        final long expiryTick = currentTick + ticks;
+        buckets.get((int) (expiryTick % buckets.size())).add(new Entry<>(item, expiryTick));
+    }
+
+    /**
+     * Advances the wheel by one tick, expiring the items that are due.
+     */
+    public void tick()
+    {
+        final List<T> expired = new ArrayList<>();
+        synchronized (this) {
+            currentTick++;
+            final Iterator<Entry<T>> iterator = buckets.get((int) (currentTick % buckets.size())).iterator();
+            while (iterator.hasNext()) {
+                final Entry<T> entry = iterator.next();
+                // Items that expire after more than one revolution of the wheel remain in the bucket.
+                if (entry.expiryTick <= currentTick) {
+                    iterator.remove();
+                    expired.add(entry.item);
+                }
+            }
+        }
+
+        for (final T item : expired) {
+            try {
+                onExpiry.accept(item);
+            } catch (RuntimeException e) {
+                Log.warn("An unexpected exception occurred while expiring an item: {}", item, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of milliseconds between ticks.
+     *
+     * @return a duration in milliseconds.
+     */
+    public long getTickDuration()
+    {
+        return tickDuration;
+    }
+
+    private static class Entry<T>
+    {
+        final T item;
+        final long expiryTick;
+
+        Entry(final T item, final long expiryTick)
+        {
+            this.item = item;
+            this.expiryTick = expiryTick;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A rate limiter that allows bursts of requests up to a maximum size, while limiting the sustained rate of requests.
+ *
+ * The bucket holds a number of tokens, up to its capacity, and is refilled at a constant rate. Each request consumes
+ * one token. A request for which no token is available is to be denied.
+ *
+ * Instances are thread-safe.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class TokenBucket
+{
+    private final double capacity;
+    private final double tokensPerNano;
+
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * Creates a new, full bucket.
+     *
+     * @param capacity The maximum amount of tokens in the bucket (the maximum size of a burst of requests).
+     * @param tokensPerMinute The amount of tokens that is added to the bucket per minute.
+     */
+    public TokenBucket(final int capacity, final int tokensPerMinute)
+    {
+        this.capacity = Math.max(1, capacity);
+        this.tokensPerNano = (double) Math.max(1, tokensPerMinute) / TimeUnit.MINUTES.toNanos(1);
+        this.tokens = this.capacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Consumes a token, if one is available.
+     *
+     * @return true if a token was consumed, false if the bucket is empty.
+     */
+    public synchronized boolean tryConsume()
+    {
+        final long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
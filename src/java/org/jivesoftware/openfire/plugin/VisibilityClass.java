@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.admin.AdminManager;
+import org.xmpp.packet.JID;
+
+/**
+ * A classification of entities that request Service Discovery information. Entities of the same class are expected to
+ * be shown the same Service Discovery information, which allows such information to be cached per class, rather than
+ * per entity.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public enum VisibilityClass
+{
+    /**
+     * An entity that is not local to this server.
+     */
+    REMOTE,
+
+    /**
+     * A local entity that is not a user (such as the server itself, or a component).
+     */
+    LOCAL_ENTITY,
+
+    /**
+     * A local user that has authenticated anonymously.
+     */
+    ANONYMOUS,
+
+    /**
+     * A local user that has been registered with the server.
+     */
+    USER,
+
+    /**
+     * A local user that has administrative privileges.
+     */
+    ADMIN;
+
+    /**
+     * Determines the class of an entity that requests Service Discovery information.
+     *
+     * @param requester The address of the requesting entity (can be null).
+     * @return the visibility class of the entity.
+     */
+    public static VisibilityClass of(final JID requester)
+    {
+        final XMPPServer server = XMPPServer.getInstance();
+        if (requester == null || !server.isLocal(requester)) {
+            return REMOTE;
+        }
+        if (requester.getNode() == null) {
+            return LOCAL_ENTITY;
+        }
+        if (server.getSessionManager().isAnonymousRoute(requester)) {
+            return ANONYMOUS;
+        }
+        if (AdminManager.getInstance().isUserAdmin(requester, true)) {
+            return ADMIN;
+        }
+        return USER;
+    }
+}
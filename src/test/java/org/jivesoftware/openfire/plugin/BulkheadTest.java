@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link Bulkhead}.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class BulkheadTest
+{
+    /**
+     * Verifies that no more requests than the limit are sent concurrently.
+     */
+    @Test
+    public void testLimit() throws Exception
+    {
+        // Setup test fixture.
+        final Bulkhead bulkhead = new Bulkhead(2, 10);
+        final AtomicInteger sent = new AtomicInteger();
+
+        // Execute system under test.
+        for (int i = 0; i < 3; i++) {
+            bulkhead.submit(() -> {
+                sent.incrementAndGet();
+                return new CompletableFuture<String>();
+            });
+        }
+
+        // Verify results.
+        assertEquals(2, sent.get());
+        assertEquals(2, bulkhead.getOutstanding());
+        assertEquals(1, bulkhead.getQueued());
+    }
+
+    /**
+     * Verifies that a queued request is sent when an outstanding request completes, and that its result is passed on.
+     */
+    @Test
+    public void testQueuedRequestIsSentOnCompletion() throws Exception
+    {
+        // Setup test fixture.
+        final Bulkhead bulkhead = new Bulkhead(1, 10);
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        bulkhead.submit(() -> first);
+        final CompletableFuture<String> queued = bulkhead.submit(() -> CompletableFuture.completedFuture("second"));
+        assertFalse(queued.isDone());
+
+        // Execute system under test.
+        first.complete("first");
+
+        // Verify results.
+        assertEquals("second", queued.get());
+        assertEquals(0, bulkhead.getOutstanding());
+        assertEquals(0, bulkhead.getQueued());
+    }
+
+    /**
+     * Verifies that a request is rejected when both the limit of outstanding requests and the queue are full.
+     */
+    @Test
+    public void testReject() throws Exception
+    {
+        // Setup test fixture.
+        final Bulkhead bulkhead = new Bulkhead(1, 1);
+        bulkhead.submit(CompletableFuture<String>::new);
+        bulkhead.submit(CompletableFuture<String>::new);
+
+        // Execute system under test.
+        try {
+            bulkhead.submit(CompletableFuture<String>::new);
+            fail("The request should have been rejected.");
+        } catch (RejectedExecutionException e) {
+            // Expected.
+        }
+
+        // Verify results.
+        assertEquals(1, bulkhead.getRejected());
+        assertEquals(1, bulkhead.getQueued());
+    }
+
+    /**
+     * Verifies that, without a queue, a request is rejected as soon as the limit is reached.
+     */
+    @Test(expected = RejectedExecutionException.class)
+    public void testRejectWithoutQueue() throws Exception
+    {
+        // Setup test fixture.
+        final Bulkhead bulkhead = new Bulkhead(1, 0);
+        bulkhead.submit(CompletableFuture<String>::new);
+
+        // Execute system under test.
+        bulkhead.submit(CompletableFuture<String>::new);
+    }
+
+    /**
+     * Verifies that a request that completes exceptionally, or that can't be sent, releases its slot.
+     */
+    @Test
+    public void testFailedRequestReleasesSlot() throws Exception
+    {
+        // Setup test fixture.
+        final Bulkhead bulkhead = new Bulkhead(1, 10);
+
+        // Execute system under test.
+        final CompletableFuture<String> result = bulkhead.submit(() -> { throw new IllegalStateException("test"); });
+
+        // Verify results.
+        assertTrue(result.isCompletedExceptionally());
+        assertEquals(0, bulkhead.getOutstanding());
+    }
+
+    /**
+     * Verifies that a long queue of requests that complete immediately is drained without growing the stack with every
+     * request.
+     */
+    @Test
+    public void testIterativeDrain() throws Exception
+    {
+        // Setup test fixture.
+        final int amount = 100000;
+        final Bulkhead bulkhead = new Bulkhead(1, amount);
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        bulkhead.submit(() -> first);
+        final List<CompletableFuture<String>> queued = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            queued.add(bulkhead.submit(() -> CompletableFuture.completedFuture("done")));
+        }
+
+        // Execute system under test.
+        first.complete("first");
+
+        // Verify results.
+        for (final CompletableFuture<String> result : queued) {
+            assertEquals("done", result.get());
+        }
+        assertEquals(0, bulkhead.getOutstanding());
+        assertEquals(0, bulkhead.getQueued());
+    }
+
+    /**
+     * Verifies that a queued request that is abandoned is removed from the queue, and never sent.
+     */
+    @Test
+    public void testAbandonedQueuedRequestIsNotSent() throws Exception
+    {
+        // Setup test fixture.
+        final Bulkhead bulkhead = new Bulkhead(1, 10);
+        final CompletableFuture<String> first = new CompletableFuture<>();
+        bulkhead.submit(() -> first);
+        final AtomicInteger sent = new AtomicInteger();
+        final CompletableFuture<Void> abandoned = new CompletableFuture<>();
+        final CompletableFuture<String> queued = bulkhead.submit(() -> {
+            sent.incrementAndGet();
+            return CompletableFuture.completedFuture("queued");
+        }, abandoned);
+
+        // Execute system under test.
+        abandoned.complete(null);
+        first.complete("first");
+
+        // Verify results.
+        assertNull(queued.get());
+        assertEquals(0, sent.get());
+        assertEquals(0, bulkhead.getQueued());
+        assertEquals(0, bulkhead.getOutstanding());
+    }
+
+    /**
+     * Verifies that abandoning a request that has been sent does not affect its result.
+     */
+    @Test
+    public void testAbandonedSentRequestIsAwaited() throws Exception
+    {
+        // Setup test fixture.
+        final Bulkhead bulkhead = new Bulkhead(1, 10);
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        final CompletableFuture<Void> abandoned = new CompletableFuture<>();
+        final CompletableFuture<String> result = bulkhead.submit(() -> response, abandoned);
+
+        // Execute system under test.
+        abandoned.complete(null);
+        response.complete("answer");
+
+        // Verify results.
+        assertEquals("answer", result.get());
+        assertEquals(0, bulkhead.getOutstanding());
+    }
+}
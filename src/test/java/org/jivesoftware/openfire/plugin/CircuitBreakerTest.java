@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link CircuitBreaker}.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class CircuitBreakerTest
+{
+    /**
+     * Verifies that a new circuit breaker allows requests.
+     */
+    @Test
+    public void testInitiallyClosed() throws Exception
+    {
+        // Setup test fixture.
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(3, 60000);
+
+        // Execute system under test.
+        final boolean result = circuitBreaker.allowRequest();
+
+        // Verify results.
+        assertTrue(result);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    /**
+     * Verifies that the circuit breaker opens after the configured amount of consecutive failures, after which requests
+     * are no longer allowed.
+     */
+    @Test
+    public void testOpensAfterThreshold() throws Exception
+    {
+        // Setup test fixture.
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(3, 60000);
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        // Execute system under test.
+        circuitBreaker.recordFailure();
+
+        // Verify results.
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    /**
+     * Verifies that a success resets the count of consecutive failures.
+     */
+    @Test
+    public void testSuccessResetsFailures() throws Exception
+    {
+        // Setup test fixture.
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 60000);
+        circuitBreaker.recordFailure();
+
+        // Execute system under test.
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+
+        // Verify results.
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    /**
+     * Verifies that after the cool-down period, exactly one request is allowed to probe the entity.
+     */
+    @Test
+    public void testHalfOpenAllowsOneProbe() throws Exception
+    {
+        // Setup test fixture.
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+        circuitBreaker.recordFailure();
+
+        // Execute system under test.
+        final boolean first = circuitBreaker.allowRequest();
+        final boolean second = circuitBreaker.allowRequest();
+
+        // Verify results.
+        assertTrue(first);
+        assertFalse(second);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+    }
+
+    /**
+     * Verifies that a successful probe closes the circuit breaker.
+     */
+    @Test
+    public void testSuccessfulProbeCloses() throws Exception
+    {
+        // Setup test fixture.
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+        circuitBreaker.recordFailure();
+        circuitBreaker.allowRequest();
+
+        // Execute system under test.
+        circuitBreaker.recordSuccess();
+
+        // Verify results.
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    /**
+     * Verifies that a failed probe opens the circuit breaker again.
+     */
+    @Test
+    public void testFailedProbeReopens() throws Exception
+    {
+        // Setup test fixture.
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 0);
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        assertTrue(circuitBreaker.allowRequest());
+
+        // Execute system under test.
+        circuitBreaker.recordFailure();
+
+        // Verify results.
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link ExpiringCache}.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class ExpiringCacheTest
+{
+    /**
+     * Verifies that a value that is put in the cache can be obtained.
+     */
+    @Test
+    public void testPutGet() throws Exception
+    {
+        // Setup test fixture.
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(10, 60000);
+
+        // Execute system under test.
+        cache.put("key", "value");
+
+        // Verify results.
+        assertEquals("value", cache.get("key"));
+        assertNull(cache.get("other"));
+    }
+
+    /**
+     * Verifies that the least recently used entry is evicted when the maximum amount of entries is exceeded.
+     */
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception
+    {
+        // Setup test fixture.
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(2, 60000);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+
+        // Execute system under test.
+        cache.put("c", "3");
+
+        // Verify results.
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    /**
+     * Verifies that an entry is no longer returned after it expires.
+     */
+    @Test
+    public void testExpiry() throws Exception
+    {
+        // Setup test fixture.
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(10, 20);
+        cache.put("key", "value");
+
+        // Execute system under test.
+        Thread.sleep(50);
+
+        // Verify results.
+        assertNull(cache.get("key"));
+    }
+
+    /**
+     * Verifies that nothing is cached when the time to live is not positive.
+     */
+    @Test
+    public void testDisabled() throws Exception
+    {
+        // Setup test fixture.
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(10, 0);
+
+        // Execute system under test.
+        cache.put("key", "value");
+
+        // Verify results.
+        assertNull(cache.get("key"));
+    }
+
+    /**
+     * Verifies that computeIfAbsent returns a cached value when one is available, and computes one otherwise.
+     */
+    @Test
+    public void testComputeIfAbsent() throws Exception
+    {
+        // Setup test fixture.
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(10, 60000);
+        cache.put("cached", "value");
+
+        // Execute system under test.
+        final String cached = cache.computeIfAbsent("cached", key -> "computed");
+        final String computed = cache.computeIfAbsent("missing", key -> "computed");
+
+        // Verify results.
+        assertEquals("value", cached);
+        assertEquals("computed", computed);
+        assertEquals("computed", cache.get("missing"));
+    }
+
+    /**
+     * Verifies that computeIfAbsent renews the expiry of the entry that it returns.
+     */
+    @Test
+    public void testComputeIfAbsentRenewsExpiry() throws Exception
+    {
+        // Setup test fixture.
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(10, 200);
+        cache.put("key", "value");
+
+        // Execute system under test.
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(100);
+            assertEquals("value", cache.computeIfAbsent("key", key -> "computed"));
+        }
+
+        // Verify results.
+        assertEquals("value", cache.get("key"));
+    }
+
+    /**
+     * Verifies that removeIf removes all entries that match, and only those.
+     */
+    @Test
+    public void testRemoveIf() throws Exception
+    {
+        // Setup test fixture.
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(10, 60000);
+        cache.put("a", "remove");
+        cache.put("b", "keep");
+        cache.put("c", "remove");
+
+        // Execute system under test.
+        cache.removeIf((key, value) -> value.equals("remove"));
+
+        // Verify results.
+        assertNull(cache.get("a"));
+        assertEquals("keep", cache.get("b"));
+        assertNull(cache.get("c"));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link IQCorrelator}.
+ *
+ * Requests are not routed: they are recorded by a correlator that overrides {@link IQCorrelator#dispatch(IQ, long)}.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class IQCorrelatorTest
+{
+    private ScheduledThreadPoolExecutor scheduler;
+    private List<IQ> dispatched;
+    private IQCorrelator correlator;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        dispatched = new CopyOnWriteArrayList<>();
+        correlator = new IQCorrelator(scheduler, Runnable::run) {
+            @Override
+            protected void dispatch(final IQ request, final long routerTimeout)
+            {
+                dispatched.add(request);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        correlator.stop();
+        scheduler.shutdownNow();
+    }
+
+    private static IQ createRequest(final String id)
+    {
+        final IQ request = new IQ(IQ.Type.get);
+        request.setID(id);
+        request.setTo(new JID("component.example.org"));
+        request.setFrom(new JID("example.org"));
+        return request;
+    }
+
+    /**
+     * Verifies that a request is dispatched, and that its future is completed with the answer.
+     */
+    @Test
+    public void testAnswer() throws Exception
+    {
+        // Setup test fixture.
+        final IQ request = createRequest("test-1");
+        final CompletableFuture<IQ> result = correlator.send(request, 60000);
+        final IQ answer = IQ.createResultIQ(request);
+
+        // Execute system under test.
+        correlator.receivedAnswer(answer);
+
+        // Verify results.
+        assertEquals(1, dispatched.size());
+        assertSame(answer, result.get(5, TimeUnit.SECONDS));
+        assertEquals(0, correlator.getOutstanding());
+    }
+
+    /**
+     * Verifies that the future of a request that is not answered in time is completed with a null value.
+     */
+    @Test
+    public void testTimeout() throws Exception
+    {
+        // Setup test fixture.
+        final IQ request = createRequest("test-1");
+
+        // Execute system under test.
+        final CompletableFuture<IQ> result = correlator.send(request, 100);
+
+        // Verify results.
+        assertNull(result.get(5, TimeUnit.SECONDS));
+        assertEquals(0, correlator.getOutstanding());
+    }
+
+    /**
+     * Verifies that the expiry of a request that has been answered has no effect, not even on a later request that
+     * reuses its stanza ID.
+     */
+    @Test
+    public void testExpiryOfAnsweredRequestIsNoop() throws Exception
+    {
+        // Setup test fixture.
+        final IQ request = createRequest("test-1");
+        final CompletableFuture<IQ> result = correlator.send(request, 100);
+        final IQ answer = IQ.createResultIQ(request);
+        correlator.receivedAnswer(answer);
+        final CompletableFuture<IQ> reused = correlator.send(createRequest("test-1"), 60000);
+
+        // Execute system under test.
+        Thread.sleep(500); // Allow the timer wheel to visit the expiry of the first request.
+
+        // Verify results.
+        assertSame(answer, result.get());
+        assertFalse(reused.isDone());
+        assertEquals(1, correlator.getOutstanding());
+    }
+
+    /**
+     * Verifies that a request with the stanza ID of a request that is outstanding is refused.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateId() throws Exception
+    {
+        // Setup test fixture.
+        correlator.send(createRequest("test-1"), 60000);
+
+        // Execute system under test.
+        correlator.send(createRequest("test-1"), 60000);
+    }
+
+    /**
+     * Verifies that stopping the correlator completes the futures of all outstanding requests.
+     */
+    @Test
+    public void testStopCompletesPending() throws Exception
+    {
+        // Setup test fixture.
+        final CompletableFuture<IQ> first = correlator.send(createRequest("test-1"), 60000);
+        final CompletableFuture<IQ> second = correlator.send(createRequest("test-2"), 60000);
+
+        // Execute system under test.
+        correlator.stop();
+
+        // Verify results.
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertNull(first.get());
+        assertNull(second.get());
+        assertEquals(0, correlator.getOutstanding());
+    }
+}
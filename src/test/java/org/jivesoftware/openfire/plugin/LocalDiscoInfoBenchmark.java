@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.jivesoftware.openfire.disco.IQDiscoInfoHandler;
+import org.jivesoftware.openfire.disco.IQDiscoItemsHandler;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the cost per item of obtaining disco#info information of a local service, for each of the ways in which
+ * the plugin has done that:
+ *
+ * <ol>
+ *     <li>A disco#info request that was dispatched to IQDiscoItemsHandler. Its disco#items answer is rejected by
+ *     {@link IQAgentInformationHandler#parseDiscoInfo(JID, IQ)}, leaving the item without information.</li>
+ *     <li>A disco#info request that is dispatched to IQDiscoInfoHandler, of which the answer is parsed.</li>
+ *     <li>Information that is obtained directly from the DiscoInfoProvider of the service.</li>
+ * </ol>
+ *
+ * Openfire's handlers can't be used without a running server. They are replaced by functions that produce the answer
+ * that the handler would produce, for a multi-user chat service with a typical set of identities and features, and (for
+ * the first path) with a small set of rooms. The cost of Openfire determining that information itself is therefore not
+ * included. The first path would include it twice: once for the answer, and once more for the information that it
+ * fails to obtain.
+ *
+ * Run with: java -cp (test classpath) org.jivesoftware.openfire.plugin.LocalDiscoInfoBenchmark [iterations]
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class LocalDiscoInfoBenchmark
+{
+    private static final JID TARGET = new JID("conference.example.org");
+    private static final JID REQUESTER = new JID("user@example.org/resource");
+
+    private static final List<String> FEATURES = Arrays.asList(
+        "http://jabber.org/protocol/muc", "http://jabber.org/protocol/disco#info", "http://jabber.org/protocol/disco#items",
+        "jabber:iq:search", "http://jabber.org/protocol/rsm", "jabber:iq:register", "vcard-temp", "urn:xmpp:ping");
+
+    public static void main(final String[] args)
+    {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        final List<Element> identities = new ArrayList<>();
+        final Element identity = DocumentHelper.createElement("identity");
+        identity.addAttribute("category", "conference");
+        identity.addAttribute("type", "text");
+        identity.addAttribute("name", "Public Chatrooms");
+        identities.add(identity);
+        final Element directory = DocumentHelper.createElement("identity");
+        directory.addAttribute("category", "directory");
+        directory.addAttribute("type", "chatroom");
+        directory.addAttribute("name", "Public Chatroom Search");
+        identities.add(directory);
+
+        System.out.println("Cost of obtaining disco#info of one local item (" + iterations + " iterations):");
+
+        MicroBenchmark.run("disco#info request to IQDiscoItemsHandler", iterations, () -> {
+            final IQ request = createRequest();
+            final IQ response = answerAsItemsHandler(request);
+            return IQAgentInformationHandler.parseDiscoInfo(TARGET, response);
+        });
+
+        MicroBenchmark.run("disco#info request to IQDiscoInfoHandler", iterations, () -> {
+            final IQ request = createRequest();
+            final IQ response = answerAsInfoHandler(request, identities);
+            return DiscoInfoDescriptor.parse(IQAgentInformationHandler.parseDiscoInfo(TARGET, response));
+        });
+
+        MicroBenchmark.run("DiscoInfoProvider", iterations, () ->
+            DiscoInfoDescriptor.from(identities.iterator(), FEATURES.iterator()));
+    }
+
+    private static IQ createRequest()
+    {
+        final IQ request = new IQ(IQ.Type.get);
+        request.setTo(TARGET);
+        request.setFrom(REQUESTER);
+        request.setChildElement("query", IQDiscoInfoHandler.NAMESPACE_DISCO_INFO);
+        return request;
+    }
+
+    /**
+     * Produces the answer of IQDiscoItemsHandler to a request: a disco#items query, listing a few rooms.
+     */
+    private static IQ answerAsItemsHandler(final IQ request)
+    {
+        final IQ response = IQ.createResultIQ(request);
+        final Element query = response.setChildElement("query", IQDiscoItemsHandler.NAMESPACE_DISCO_ITEMS);
+        for (int i = 0; i < 5; i++) {
+            final Element item = query.addElement("item");
+            item.addAttribute("jid", "room" + i + "@" + TARGET);
+            item.addAttribute("name", "Room " + i);
+        }
+        return response;
+    }
+
+    /**
+     * Produces the answer of IQDiscoInfoHandler to a request: a disco#info query with the identities and features.
+     */
+    private static IQ answerAsInfoHandler(final IQ request, final List<Element> identities)
+    {
+        final IQ response = IQ.createResultIQ(request);
+        final Element query = response.setChildElement("query", IQDiscoInfoHandler.NAMESPACE_DISCO_INFO);
+        for (final Element identity : identities) {
+            query.add(identity.createCopy());
+        }
+        for (final String feature : FEATURES) {
+            query.addElement("feature").addAttribute("var", feature);
+        }
+        return response;
+    }
+}
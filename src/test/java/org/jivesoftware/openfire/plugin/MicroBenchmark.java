@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * A minimal harness for the microbenchmarks of this plugin, which are plain classes with a main method. These are not
+ * run as part of the build: run them from an IDE, or with the test classpath, on an otherwise idle machine.
+ *
+ * Each operation is first run to warm up the JIT compiler, and then timed. Results are consumed, so that the work that
+ * produces them can't be eliminated.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+final class MicroBenchmark
+{
+    private static volatile Object sink;
+
+    private MicroBenchmark()
+    {
+    }
+
+    /**
+     * Runs an operation repeatedly, and prints the average duration of one invocation.
+     *
+     * @param name The name under which to report the result.
+     * @param iterations The amount of invocations to time (the same amount is used to warm up).
+     * @param operation The operation to benchmark.
+     * @return The average duration of one invocation, in nanoseconds.
+     */
+    static double run(final String name, final int iterations, final Supplier<?> operation)
+    {
+        for (int i = 0; i < iterations; i++) {
+            sink = operation.get();
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = operation.get();
+        }
+        final double result = (double) (System.nanoTime() - start) / iterations;
+        System.out.println(String.format(Locale.ROOT, "%-45s %,14.1f ns/op", name, result));
+        return result;
+    }
+}
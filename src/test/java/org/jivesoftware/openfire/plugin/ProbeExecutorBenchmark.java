@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the duration of probing the items of an entity serially, on a pool of platform threads, and on virtual
+ * threads (as configured by the 'plugin.agentinformation.probe.virtual' property).
+ *
+ * Each probe blocks for a fixed period, like a blocking disco#info request to an external component does while it
+ * awaits an answer. The duration of probing all items is dominated by that waiting, which is what the modes differ in.
+ *
+ * Virtual threads require Java 21 or later. On earlier runtimes, that mode is skipped.
+ *
+ * Run with: java -cp (test classpath) org.jivesoftware.openfire.plugin.ProbeExecutorBenchmark [items] [latency (ms)]
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class ProbeExecutorBenchmark
+{
+    public static void main(final String[] args) throws Exception
+    {
+        final int items = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        final int iterations = 5;
+
+        System.out.println("Duration of probing " + items + " items, each of which blocks for " + latency + " ms:");
+
+        // Serial probing takes items * latency. Time fewer items, to keep the benchmark short.
+        final int serialItems = Math.min(items, 50);
+        final double serial = MicroBenchmark.run("serial (" + serialItems + " items)", 1, () -> {
+            for (int i = 0; i < serialItems; i++) {
+                probe(latency);
+            }
+            return null;
+        });
+        System.out.println(String.format(Locale.ROOT, "%-45s %,14.1f ns/op (extrapolated)", "serial (" + items + " items)", serial * items / serialItems));
+
+        final ExecutorService platformThreads = Executors.newFixedThreadPool(8);
+        try {
+            MicroBenchmark.run("platform threads (8)", iterations, () -> probeAll(platformThreads, items, latency));
+        } finally {
+            platformThreads.shutdownNow();
+        }
+
+        final ExecutorService virtualThreads;
+        try {
+            virtualThreads = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("virtual threads: skipped, as these are not supported by this Java runtime.");
+            return;
+        }
+        final ExecutorService bounded = new BoundedExecutorService(virtualThreads, 1000);
+        try {
+            MicroBenchmark.run("virtual threads (at most 1000 concurrently)", iterations, () -> probeAll(bounded, items, latency));
+        } finally {
+            bounded.shutdownNow();
+        }
+    }
+
+    /**
+     * Probes all items concurrently on an executor, and waits for all of them to finish, like findAgents does.
+     */
+    private static Object probeAll(final ExecutorService executor, final int items, final long latency)
+    {
+        final List<CompletableFuture<Void>> probes = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            probes.add(CompletableFuture.runAsync(() -> probe(latency), executor));
+        }
+        return CompletableFuture.allOf(probes.toArray(new CompletableFuture[0])).join();
+    }
+
+    /**
+     * A probe that blocks its thread while it awaits an answer.
+     */
+    private static void probe(final long latency)
+    {
+        try {
+            TimeUnit.MILLISECONDS.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
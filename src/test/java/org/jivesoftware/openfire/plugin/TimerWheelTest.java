@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link TimerWheel}.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class TimerWheelTest
+{
+    /**
+     * Verifies that an item expires on the first tick at or after its expiry time, and not before.
+     */
+    @Test
+    public void testExpiry() throws Exception
+    {
+        // Setup test fixture.
+        final List<String> expired = new ArrayList<>();
+        final TimerWheel<String> wheel = new TimerWheel<>(100, 512, expired::add);
+        wheel.schedule("item", 250);
+
+        // Execute system under test.
+        wheel.tick();
+        wheel.tick();
+        final boolean expiredEarly = !expired.isEmpty();
+        wheel.tick();
+
+        // Verify results.
+        assertFalse(expiredEarly);
+        assertEquals(1, expired.size());
+        assertEquals("item", expired.get(0));
+    }
+
+    /**
+     * Verifies that an item that expires after more than one revolution of the wheel does not expire when its bucket is
+     * visited in an earlier revolution.
+     */
+    @Test
+    public void testMultipleRevolutions() throws Exception
+    {
+        // Setup test fixture.
+        final List<String> expired = new ArrayList<>();
+        final TimerWheel<String> wheel = new TimerWheel<>(100, 512, expired::add);
+        wheel.schedule("item", 60000); // 600 ticks, which is more than the 512 buckets of the wheel.
+
+        // Execute system under test.
+        for (int i = 0; i < 599; i++) {
+            wheel.tick();
+        }
+        final boolean expiredEarly = !expired.isEmpty();
+        wheel.tick();
+
+        // Verify results.
+        assertFalse(expiredEarly);
+        assertEquals(1, expired.size());
+    }
+
+    /**
+     * Verifies that an item without a delay expires on the next tick.
+     */
+    @Test
+    public void testNoDelay() throws Exception
+    {
+        // Setup test fixture.
+        final List<String> expired = new ArrayList<>();
+        final TimerWheel<String> wheel = new TimerWheel<>(100, 512, expired::add);
+        wheel.schedule("item", 0);
+
+        // Execute system under test.
+        wheel.tick();
+
+        // Verify results.
+        assertEquals(1, expired.size());
+    }
+
+    /**
+     * Verifies that an exception thrown while expiring an item does not prevent other items from expiring.
+     */
+    @Test
+    public void testExceptionDoesNotPreventExpiry() throws Exception
+    {
+        // Setup test fixture.
+        final List<String> expired = new ArrayList<>();
+        final TimerWheel<String> wheel = new TimerWheel<>(100, 512, item -> {
+            if (item.equals("bad")) {
+                throw new IllegalStateException("test");
+            }
+            expired.add(item);
+        });
+        wheel.schedule("bad", 100);
+        wheel.schedule("good", 100);
+
+        // Execute system under test.
+        wheel.tick();
+
+        // Verify results.
+        assertEquals(1, expired.size());
+        assertEquals("good", expired.get(0));
+    }
+}
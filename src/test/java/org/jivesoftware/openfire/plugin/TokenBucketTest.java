@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link TokenBucket}.
+ *
+ * @author Guus der Kinderen, guus@goodbytes.nl
+ */
+public class TokenBucketTest
+{
+    /**
+     * Verifies that a new bucket allows a burst of requests up to its capacity, and denies the request after that.
+     */
+    @Test
+    public void testBurst() throws Exception
+    {
+        // Setup test fixture.
+        final TokenBucket bucket = new TokenBucket(3, 1);
+
+        // Execute system under test.
+        final boolean first = bucket.tryConsume();
+        final boolean second = bucket.tryConsume();
+        final boolean third = bucket.tryConsume();
+        final boolean fourth = bucket.tryConsume();
+
+        // Verify results.
+        assertTrue(first);
+        assertTrue(second);
+        assertTrue(third);
+        assertFalse(fourth);
+    }
+
+    /**
+     * Verifies that an empty bucket is refilled over time.
+     */
+    @Test
+    public void testRefill() throws Exception
+    {
+        // Setup test fixture.
+        final TokenBucket bucket = new TokenBucket(1, 60000); // One token per millisecond.
+        assertTrue(bucket.tryConsume());
+
+        // Execute system under test.
+        Thread.sleep(50);
+        final boolean result = bucket.tryConsume();
+
+        // Verify results.
+        assertTrue(result);
+    }
+
+    /**
+     * Verifies that a bucket is not refilled beyond its capacity.
+     */
+    @Test
+    public void testRefillIsCapped() throws Exception
+    {
+        // Setup test fixture.
+        final TokenBucket bucket = new TokenBucket(2, 60000); // One token per millisecond.
+        Thread.sleep(50);
+
+        // Execute system under test.
+        final boolean first = bucket.tryConsume();
+        final boolean second = bucket.tryConsume();
+        final boolean third = bucket.tryConsume();
+
+        // Verify results.
+        assertTrue(first);
+        assertTrue(second);
+        assertFalse(third);
+    }
+}